@@ -4,6 +4,10 @@ import index.rtree.Rectangle;
 import main.Main;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import static basic.SimplePoint.getDistance;
 
@@ -16,16 +20,36 @@ public class Grid {
     private float latitude_step;     // the given step length
     private float longitude_step;
 
+    // for ranking the vertices by the planar distance
+    private static final double KM_PER_DEGREE = 6378.137 * Math.PI / 180.0;
+    private static final double PLANAR_ERROR = 1e-3;    // the relative error of the planar distance within 3*3 cells, far beyond the real one
+    private static final double ROUNDING_ERROR = 2e-4;  // km, the haversine distance is rounded to 0.1m
+    private double[] rowCos;    // the cosine of the latitude at the center of each row
+    private double minCellSize;     // km, the lower bound of the width and height of cells
+
     public float horizontal_size;
     public float vertical_size;
 
     public long numOfCellX_col;   // longitude
     public long numOfCellY_row;   // latitude
 
-    // for linking attack
-    Map<Long, Set<SimplePoint>> gridIdx2Nodes;
+    /*
+     * for linking attack
+     * map-matching is thread-safe: the vertices of road network are read-only, while an outlier is published
+     * (to extraPoints, Main.NNid2lnglat, gridIdx2Nodes and then outlierCells) before its id is handed out,
+     * and the outliers of a cell are replaced as a whole (copy-on-write), so a reader never sees a partially inserted vertex
+     */
+    public static final int UNMATCHED = -2;     // see getNearestIDs
+
+    GridCells cells;    // the vertices of road network grouped by cells in flat arrays
+    ConcurrentMap<Long, SimplePoint[]> gridIdx2Nodes = new ConcurrentHashMap<>();  // the outliers added during map-matching
+    AtomicLongArray outlierCells;   // the bitmap of cells having outliers, to skip the map lookups for the others
     public int maxNodeId;
-    public Map<SimplePoint, Integer> extraPoints = new HashMap<>(); // some outlier points that are out of the grid range
+    public ConcurrentMap<SimplePoint, Integer> extraPoints = new ConcurrentHashMap<>(); // some outlier points that are out of the grid range
+    private final AtomicInteger outlierNum = new AtomicInteger();
+    int maxRing = 1;    // without any vertex in the 3*3 cells, the search is expanded ring by ring up to it before creating an outlier
+    private final LongAdder ringMatchNum = new LongAdder();     // # of points matched by the expanded search, i.e., the outliers avoided
+    NearestVertexCache cache;   // the results of map-matching, null for no cache
 
     // construct grid cells based on the given size
     public Grid(float lng_min, float lng_max, float lat_min, float lat_max, float _size) {
@@ -52,6 +76,7 @@ public class Grid {
 
         longitude_step = lng_diff / numOfCellX_col;
         latitude_step = lat_diff / numOfCellY_row;
+        initRowCos();
     }
 
     public Grid(Grid g) {
@@ -89,6 +114,7 @@ public class Grid {
         horizontal_size = (float) (updown / numOfCellX_col);
         vertical_size = (float) (leftright / numOfCellY_row);
 
+        initRowCos();
         showStatistics();
     }
 
@@ -104,9 +130,20 @@ public class Grid {
         numOfCellX_col = (long) Math.ceil(lng_diff / longitude_step);      // how many cell in one row
         numOfCellY_row = (long) Math.ceil(lat_diff / latitude_step);      // how many row in total
 
+        initRowCos();
         showStatistics();
     }
 
+    private void initRowCos() {
+        rowCos = new double[(int) numOfCellY_row];
+        double minCos = 1;
+        for (int row = 0; row < rowCos.length; row++) {
+            rowCos[row] = Math.cos(Math.toRadians(latitude_max - (row + 0.5) * latitude_step));
+            minCos = Math.min(minCos, rowCos[row]);
+        }
+        minCellSize = KM_PER_DEGREE * Math.min(latitude_step, longitude_step * minCos) * (1 - PLANAR_ERROR);
+    }
+
     private void showStatistics(){
         double up = getDistance(longitude_min, latitude_max, longitude_max, latitude_max);
         double down = getDistance(longitude_min, latitude_min, longitude_max, latitude_min);
@@ -132,16 +169,50 @@ public class Grid {
     }
 
     public void addVertices(Set<SimplePoint> points) {
-        gridIdx2Nodes = new HashMap<>();
-        for (SimplePoint p : points) {
-            long gid = get_gridId_by_lnglat(p.getLongitude(), p.getLatitude());
-            Set<SimplePoint> ps = gridIdx2Nodes.compute(gid, (k, v) -> v == null ? new HashSet<>() : v);
-            ps.add(p);
+        setCells(GridCells.build(this, points));
+    }
+
+    // use the vertices grouped in flat arrays (e.g., mapped from a snapshot)
+    public void setCells(GridCells _cells) {
+        cells = _cells;
+        gridIdx2Nodes = new ConcurrentHashMap<>();
+        long total = numOfCellX_col * numOfCellY_row;
+        outlierCells = total <= Integer.MAX_VALUE ? new AtomicLongArray((int) ((total + 63) / 64)) : null;
+    }
+
+    public GridCells getCells() {
+        return cells;
+    }
+
+    // shared by all signature builders using this grid
+    public void setCache(NearestVertexCache _cache) {
+        cache = _cache;
+    }
+
+    public NearestVertexCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param _maxRing  the i-th ring is the cells i cells away from the cell of a point, e.g., the 3*3 cells are within the 1st ring;
+     *                  1 means no expanded search, i.e., an outlier is created once there is no vertex in the 3*3 cells
+     */
+    public void setMaxRing(int _maxRing) {
+        if (_maxRing < 1) {
+            throw new IllegalArgumentException("Error in Grid.setMaxRing: the max ring should be at least 1.");
         }
+        maxRing = _maxRing;
+    }
+
+    public long getRingMatchNum() {
+        return ringMatchNum.sum();
+    }
+
+    public int getOutlierNum() {
+        return outlierNum.get();
     }
 
     public void addPoints(Set<SimplePoint> points) {
-        gridIdx2Nodes = new HashMap<>();
         for (SimplePoint p : points) {
             long gid = get_gridId_by_lnglat(p.getLongitude(), p.getLatitude());
             int a = (int) gid;
@@ -149,15 +220,21 @@ public class Grid {
                 System.out.println("ERROR: exceed integer length.");
                 return;
             }
-
-            // index of grid2points
-            Set<SimplePoint> ps = gridIdx2Nodes.compute(gid, (k, v) -> v == null ? new HashSet<>() : v);
-            ps.add(p);
         }
+        setCells(GridCells.build(this, points));
     }
 
+    // the vertices (including the outliers) in the given cell, null if none
     public Set<SimplePoint> get_POIs_by_gridId(long gid) {
-        return gridIdx2Nodes.get(gid);
+        Set<SimplePoint> points = new HashSet<>();
+        int cellIdx = cells.findCell(gid);
+        if (cellIdx >= 0) {
+            for (int i = cells.getStart(cellIdx); i < cells.getEnd(cellIdx); i++) {
+                points.add(new SimplePoint(cells.getVertexId(i), cells.getLongitude(i), cells.getLatitude(i)));
+            }
+        }
+        Collections.addAll(points, gridIdx2Nodes.getOrDefault(gid, new SimplePoint[0]));
+        return points.isEmpty() ? null : points;
     }
 
     public long get_gridId_by_lnglat(float lng, float lat) {
@@ -225,45 +302,257 @@ public class Grid {
 
 
     public int getNearestID(SimplePoint p) {
+        return getNearestID(p.getLongitude(), p.getLatitude());
+    }
+
+    /**
+     * the nearest vertex in the 3*3 cells around the point, the cells are visited in the same order as surrounding(gid, true),
+     * i.e., the row of the point, the row above and the row below, each in the order of middle, left and right
+     * for each row, the three cells are adjacent in the sorted cell ids, so they are located by one binary search
+     *
+     * the vertices are ranked by the planar distance (see SimplePoint.getPlanarDistance) in the first pass,
+     * then the (rounded) haversine distance is only computed for the few vertices close to the minimum in the second pass,
+     * so the result is exactly the one ranked by the haversine distance, including the ties
+     */
+    public int getNearestID(float lng, float lat) {
+        long gid = get_gridId_by_lnglat(lng, lat);
+        if (gid == -1) {
+            return -1;  // UPDATE: the point is out of range
+        }
+        final long key = cache == null ? NearestVertexCache.NONE : NearestVertexCache.key(lng, lat);
+        if (key != NearestVertexCache.NONE) {
+            int cached = cache.get(key);
+            if (cached >= 0) {
+                return cached;
+            }
+        }
+
+        final double cosLat = rowCos[(int) (gid / numOfCellX_col)];
+        double minPlanar = Double.MAX_VALUE, bound = 0;
+        double minDist = Double.MAX_VALUE;
+        int vertexId = -1;
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) {
+                if (minPlanar == Double.MAX_VALUE) {
+                    break;  // no vertex around
+                }
+                double km = Math.sqrt(minPlanar) * KM_PER_DEGREE * (1 + PLANAR_ERROR) + ROUNDING_ERROR;
+                bound = (km / KM_PER_DEGREE) * (km / KM_PER_DEGREE);
+            }
+            for (int r = 0; r < 3; r++) {
+                long middle = r == 0 ? gid : (r == 1 ? gid - numOfCellX_col : gid + numOfCellX_col);
+                int first = cells.lowerBound(middle - 1);
+                for (int c = 0; c < 3; c++) {
+                    long cid = c == 0 ? middle : (c == 1 ? middle - 1 : middle + 1);
+                    if (is_invalid(cid)) {
+                        continue;
+                    }
+                    int cellIdx = cells.findCell(cid, first);
+                    if (cellIdx >= 0) {
+                        for (int i = cells.getStart(cellIdx), end = cells.getEnd(cellIdx); i < end; i++) {
+                            float v_lng = cells.getLongitude(i), v_lat = cells.getLatitude(i);
+                            double planar = SimplePoint.getPlanarDistance(v_lng, v_lat, lng, lat, cosLat);
+                            if (pass == 0) {
+                                minPlanar = Math.min(minPlanar, planar);
+                            } else if (planar <= bound) {
+                                double dist = getDistance(v_lng, v_lat, lng, lat);
+                                if (minDist > dist) {
+                                    minDist = dist;
+                                    vertexId = cells.getVertexId(i);
+                                }
+                            }
+                        }
+                    }
+                    if (hasOutliers(cid)) {
+                        for (SimplePoint v : gridIdx2Nodes.get(cid)) {
+                            double planar = SimplePoint.getPlanarDistance(v.longitude, v.latitude, lng, lat, cosLat);
+                            if (pass == 0) {
+                                minPlanar = Math.min(minPlanar, planar);
+                            } else if (planar <= bound) {
+                                double dist = getDistance(v.longitude, v.latitude, lng, lat);
+                                if (minDist > dist) {
+                                    minDist = dist;
+                                    vertexId = v.pid;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (Main.DEBUG && vertexId != getNearestIDByHaversine(gid, lng, lat)) {
+            System.out.printf("[ERROR] Grid.getNearestID: different vertices for (%f, %f): %d vs. %d\n",
+                    lng, lat, vertexId, getNearestIDByHaversine(gid, lng, lat));
+        }
+
+        // an outlier is only created in the cell without any vertex in its 3*3 cells (see below),
+        // so if the cell of this point has a vertex, the nearest vertex of this point never changes and it can be cached
+        if (key != NearestVertexCache.NONE && vertexId >= 0 && cells.findCell(gid) >= 0) {
+            cache.put(key, vertexId);
+        }
+
+        // this point cannot find an anchor point in the 3*3 cells, then the farther vertices of road network are searched
+        if (vertexId == -1 && maxRing > 1) {
+            vertexId = getNearestIDInRings(gid, lng, lat);
+            if (vertexId >= 0) {
+                ringMatchNum.increment();
+            }
+        }
+        // this point cannot find an anchor point in the grid
+        if (vertexId == -1) {
+            vertexId = extraPoints.computeIfAbsent(new SimplePoint(lng, lat), p -> addOutlier(gid, p));
+        }
+        return vertexId;
+    }
+
+    /**
+     * the nearest vertex of road network in the rings from 2 to maxRing (row by row, from left to right in each ring),
+     * the search stops once the next ring is farther than the nearest vertex found, as the cells in the i-th ring are
+     * at least (i - 1) cells away from the point
+     * it is only for the points in sparse regions, so the vertices are simply ranked by the haversine distance
+     */
+    private int getNearestIDInRings(long gid, float lng, float lat) {
+        final long row = gid / numOfCellX_col, col = gid % numOfCellX_col;
         int vertexId = -1;
-        Vector<Long> grids = get_gridIds_by_lnglat(p.getLongitude(), p.getLatitude());
-        if (grids != null) {
-            double minDist = Double.MAX_VALUE;
-            for (long gid : grids) {
-                Set<SimplePoint> points = gridIdx2Nodes.get(gid);
-                if (points != null && !points.isEmpty()) {
-                    for (SimplePoint v : points) {
-                        double dist = getDistance(v, p);
+        double minDist = Double.MAX_VALUE;
+        for (int r = 2; r <= maxRing; r++) {
+            if (vertexId >= 0 && (r - 1) * minCellSize > minDist) {
+                break;
+            }
+            for (long y = Math.max(0, row - r); y <= Math.min(numOfCellY_row - 1, row + r); y++) {
+                long step = (y == row - r || y == row + r) ? 1 : 2L * r;  // the whole row at the top and bottom, otherwise both ends
+                for (long x = col - r; x <= col + r; x += step) {
+                    if (x < 0 || x >= numOfCellX_col) {
+                        continue;
+                    }
+                    int cellIdx = cells.findCell(y * numOfCellX_col + x);
+                    if (cellIdx < 0) {
+                        continue;
+                    }
+                    for (int i = cells.getStart(cellIdx), end = cells.getEnd(cellIdx); i < end; i++) {
+                        double dist = getDistance(cells.getLongitude(i), cells.getLatitude(i), lng, lat);
                         if (minDist > dist) {
                             minDist = dist;
-                            vertexId = v.pid;
+                            vertexId = cells.getVertexId(i);
                         }
                     }
                 }
             }
+        }
+        return vertexId;
+    }
 
-            // this point is out of the grid range or cannot find an anchor point in the grid
-            if (vertexId == -1) {
-                final int nextId = maxNodeId + 1 + extraPoints.size();
-                vertexId = extraPoints.compute(p, (k, v) -> v == null ? nextId : v);
-                p.set_ID(vertexId);
+    // called at most once for each outlier (by extraPoints.computeIfAbsent), its id is handed out after it is published
+    private int addOutlier(long gid, SimplePoint p) {
+        int vertexId = maxNodeId + 1 + outlierNum.getAndIncrement();
+        p.set_ID(vertexId);
+        Main.NNid2lnglat.put(vertexId, p);
+        gridIdx2Nodes.merge(gid, new SimplePoint[]{p}, (ps, added) -> {
+            SimplePoint[] merged = Arrays.copyOf(ps, ps.length + 1);
+            merged[ps.length] = p;
+            return merged;
+        });
+        if (outlierCells != null) {
+            outlierCells.getAndAccumulate((int) (gid >>> 6), 1L << gid, (bits, bit) -> bits | bit);
+        }
+        return vertexId;
+    }
 
-                if (vertexId == nextId) {     // a new one
-                    Main.NNid2lnglat.put(vertexId, p);
+    /**
+     * map-match all points of the trajectories with a pool of threads (1 means serial, 0 means all available cores)
+     *
+     * only the points whose own cell has a vertex of road network are matched here, as no outlier can be created in their 3*3 cells;
+     * the others are left as UNMATCHED, and should be matched by getNearestID(matched, traj, idx) when they are used,
+     * so the outliers are still created in the order of use, and the results are the same as the serial map-matching
+     *
+     * @return the vertex ids of each point, for each trajectory
+     */
+    public int[][] getNearestIDs(final List<Trajectory> trajectories, final int threadNum) {
+        final int[][] matched = new int[trajectories.size()][];
+        final int threads = threadNum > 0 ? threadNum : Runtime.getRuntime().availableProcessors();
+        if (threads == 1) {
+            for (int t = 0; t < matched.length; t++) {
+                matched[t] = new int[trajectories.get(t).get_length()];
+                Arrays.fill(matched[t], UNMATCHED);
+            }
+            return matched;
+        }
 
-                    long gid = get_gridId_by_lnglat(p.getLongitude(), p.getLatitude());
-                    if (gid >= 0) {
-                        Set<SimplePoint> points = gridIdx2Nodes.compute(gid, (k, v) -> v == null ? new HashSet<>() : v);
-                        points.add(p);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < matched.length; t++) {
+                final int idx = t;
+                futures.add(pool.submit(() -> {
+                    Trajectory traj = trajectories.get(idx);
+                    int[] vids = new int[traj.get_length()];
+                    for (int i = 0; i < vids.length; i++) {
+                        float lng = traj.get_longitude(i), lat = traj.get_latitude(i);
+                        long gid = get_gridId_by_lnglat(lng, lat);
+                        if (gid == -1) {
+                            vids[i] = -1;
+                        } else {
+                            vids[i] = cells.findCell(gid) >= 0 ? getNearestID(lng, lat) : UNMATCHED;
+                        }
                     }
-                }
+                    matched[idx] = vids;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Error in Grid.getNearestIDs: interrupted.");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error in Grid.getNearestIDs: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdownNow();
         }
-        // UPDATE: else, the point is out of range
+        return matched;
+    }
 
+    // the result of getNearestIDs for the idx-th point of the trajectory, it is matched now if left as UNMATCHED
+    public int getNearestID(final int[] matched, final Trajectory traj, final int idx) {
+        int vertexId = matched[idx];
+        if (vertexId == UNMATCHED) {
+            vertexId = getNearestID(traj.get_longitude(idx), traj.get_latitude(idx));
+            matched[idx] = vertexId;
+        }
         return vertexId;
     }
 
+    // the reference of getNearestID, which ranks all vertices around by the haversine distance
+    private int getNearestIDByHaversine(long gid, float lng, float lat) {
+        int vertexId = -1;
+        double minDist = Double.MAX_VALUE;
+        for (long cid : surrounding(gid, true)) {
+            int cellIdx = cells.findCell(cid);
+            for (int i = cellIdx < 0 ? 0 : cells.getStart(cellIdx), end = cellIdx < 0 ? 0 : cells.getEnd(cellIdx); i < end; i++) {
+                double dist = getDistance(cells.getLongitude(i), cells.getLatitude(i), lng, lat);
+                if (minDist > dist) {
+                    minDist = dist;
+                    vertexId = cells.getVertexId(i);
+                }
+            }
+            for (SimplePoint v : gridIdx2Nodes.getOrDefault(cid, new SimplePoint[0])) {
+                double dist = getDistance(v.longitude, v.latitude, lng, lat);
+                if (minDist > dist) {
+                    minDist = dist;
+                    vertexId = v.pid;
+                }
+            }
+        }
+        return vertexId;
+    }
+
+    private boolean hasOutliers(long gid) {
+        if (outlierCells != null) {
+            return (outlierCells.get((int) (gid >>> 6)) & (1L << gid)) != 0;
+        }
+        return gridIdx2Nodes.containsKey(gid);
+    }
+
 
     public Rectangle getRectangleByGridID(int gridId) {
         long row = gridId / numOfCellX_col;
@@ -0,0 +1,158 @@
+package basic;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.*;
+
+/**
+ * The road vertices grouped by grid cells in flat arrays
+ *      cellIds:     the ids of non-empty cells in ascending order
+ *      cellStarts:  the vertices of the i-th cell are in [cellStarts[i], cellStarts[i+1])
+ *      vertexIds, longitudes, latitudes:   the vertices, sorted by (cell id, vertex id)
+ *
+ * the arrays are buffers, so they can be either on heap or mapped from a snapshot file
+ */
+public class GridCells {
+
+    final LongBuffer cellIds;
+    final IntBuffer cellStarts;
+    final IntBuffer vertexIds;
+    final FloatBuffer longitudes;
+    final FloatBuffer latitudes;
+
+    private final int cellNum;
+    private final int vertexNum;
+
+    public GridCells(LongBuffer _cellIds, IntBuffer _cellStarts, IntBuffer _vertexIds,
+                     FloatBuffer _longitudes, FloatBuffer _latitudes) {
+        cellIds = _cellIds;
+        cellStarts = _cellStarts;
+        vertexIds = _vertexIds;
+        longitudes = _longitudes;
+        latitudes = _latitudes;
+        cellNum = _cellIds.limit();
+        vertexNum = _vertexIds.limit();
+        if (cellStarts.limit() != cellNum + 1 || longitudes.limit() != vertexNum || latitudes.limit() != vertexNum) {
+            throw new IllegalArgumentException("Error in GridCells: the sizes of arrays are inconsistent.");
+        }
+    }
+
+    // group the given vertices by the cells of grid, the vertices out of the grid range are ignored
+    public static GridCells build(final Grid grid, final Collection<SimplePoint> points) {
+        int n = 0;
+        SimplePoint[] vertices = new SimplePoint[points.size()];
+        long[] gids = new long[points.size()];
+        for (SimplePoint p : points) {
+            long gid = grid.get_gridId_by_lnglat(p.getLongitude(), p.getLatitude());
+            if (gid >= 0) {
+                vertices[n] = p;
+                gids[n++] = gid;
+            }
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> {
+            int c = Long.compare(gids[i1], gids[i2]);
+            return c != 0 ? c : Integer.compare(vertices[i1].pid, vertices[i2].pid);
+        });
+
+        int[] ids = new int[n];
+        float[] lngs = new float[n], lats = new float[n];
+        long[] cells = new long[n];
+        int[] starts = new int[n + 1];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int j = order[i];
+            if (m == 0 || cells[m - 1] != gids[j]) {
+                cells[m] = gids[j];
+                starts[m++] = i;
+            }
+            ids[i] = vertices[j].pid;
+            lngs[i] = vertices[j].getLongitude();
+            lats[i] = vertices[j].getLatitude();
+        }
+        starts[m] = n;
+
+        return new GridCells(LongBuffer.wrap(Arrays.copyOf(cells, m)), IntBuffer.wrap(Arrays.copyOf(starts, m + 1)),
+                IntBuffer.wrap(ids), FloatBuffer.wrap(lngs), FloatBuffer.wrap(lats));
+    }
+
+    public int getCellNum() {
+        return cellNum;
+    }
+
+    public int getVertexNum() {
+        return vertexNum;
+    }
+
+    /** @return the index of the given cell, or -1 if it has no vertex */
+    public int findCell(long gid) {
+        int low = 0, high = cellNum - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long c = cellIds.get(mid);
+            if (c < gid) {
+                low = mid + 1;
+            } else if (c > gid) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** @return the index of the first cell whose id is not smaller than gid */
+    public int lowerBound(long gid) {
+        int low = 0, high = cellNum;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cellIds.get(mid) < gid) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** the same as findCell(gid), but the cell is searched linearly from the given index, e.g., lowerBound of a nearby cell */
+    public int findCell(long gid, int from) {
+        for (int i = from; i < cellNum; i++) {
+            long c = cellIds.get(i);
+            if (c == gid) {
+                return i;
+            } else if (c > gid) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    public long getCellId(int cellIdx) {
+        return cellIds.get(cellIdx);
+    }
+
+    public int getStart(int cellIdx) {
+        return cellStarts.get(cellIdx);
+    }
+
+    public int getEnd(int cellIdx) {
+        return cellStarts.get(cellIdx + 1);
+    }
+
+    public int getVertexId(int i) {
+        return vertexIds.get(i);
+    }
+
+    public float getLongitude(int i) {
+        return longitudes.get(i);
+    }
+
+    public float getLatitude(int i) {
+        return latitudes.get(i);
+    }
+}
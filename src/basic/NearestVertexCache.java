@@ -0,0 +1,132 @@
+package basic;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of map-matching results, from a location to its nearest vertex
+ *      key:    the location quantized to 1e-5 degree (the precision of raw data), both coordinates packed into a long
+ *      value:  the vertex id
+ *
+ * it is set-associative in primitive arrays, i.e., a key can only be in the WAYS slots of its set,
+ * and the slot with the oldest stamp in the set is replaced, where the stamp is the last access time (LRU) or the insertion time (FIFO)
+ *
+ * it is thread-safe, the sets are guarded by striped locks, each of which also has its own clock for the stamps
+ */
+public class NearestVertexCache {
+
+    public enum Policy { LRU, FIFO }
+
+    public static final long NONE = Long.MIN_VALUE;     // the key of a location that can't be quantized without loss
+    private static final double SCALE = 1e5;
+    private static final int WAYS = 8;
+    private static final int STRIPES = 64;
+
+    private final Policy policy;
+    private final long[] keys;
+    private final int[] values;
+    private final long[] stamps;
+    private final int setMask;
+    private final Object[] locks;
+    private final long[] clocks;    // one for each lock
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param size # of entries, rounded up to a power of 2 (at least WAYS)
+     */
+    public NearestVertexCache(int size, Policy _policy) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Error in NearestVertexCache: the size should be positive.");
+        }
+        int capacity = Math.max(WAYS, Integer.highestOneBit(size - 1) << 1);
+        policy = _policy;
+        keys = new long[capacity];
+        Arrays.fill(keys, NONE);
+        values = new int[capacity];
+        stamps = new long[capacity];
+        setMask = capacity / WAYS - 1;
+        locks = new Object[Math.min(STRIPES, capacity / WAYS)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        clocks = new long[locks.length];
+    }
+
+    /**
+     * @return the key of the location, or NONE if the quantized location is not exactly the given one,
+     *         e.g., a raw point with more than 5 decimals, then it shouldn't be cached
+     */
+    public static long key(float lng, float lat) {
+        long q_lng = Math.round(lng * SCALE), q_lat = Math.round(lat * SCALE);
+        if ((float) (q_lng / SCALE) != lng || (float) (q_lat / SCALE) != lat) {
+            return NONE;
+        }
+        return (q_lng << 32) | (q_lat & 0xFFFFFFFFL);
+    }
+
+    private int set(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & setMask;
+    }
+
+    /** @return the cached vertex id, or -1 if absent */
+    public int get(long key) {
+        int set = set(key), from = set * WAYS;
+        int lock = set & (locks.length - 1);
+        synchronized (locks[lock]) {
+            for (int i = from; i < from + WAYS; i++) {
+                if (keys[i] == key) {
+                    if (policy == Policy.LRU) {
+                        stamps[i] = ++clocks[lock];
+                    }
+                    hits.increment();
+                    return values[i];
+                }
+            }
+        }
+        misses.increment();
+        return -1;
+    }
+
+    public void put(long key, int vertexId) {
+        int set = set(key), from = set * WAYS, victim = from;
+        int lock = set & (locks.length - 1);
+        synchronized (locks[lock]) {
+            for (int i = from; i < from + WAYS; i++) {
+                if (keys[i] == key) {
+                    values[i] = vertexId;
+                    return;
+                }
+                if (stamps[i] < stamps[victim]) {    // an empty slot has the stamp 0
+                    victim = i;
+                }
+            }
+            keys[victim] = key;
+            values[victim] = vertexId;
+            stamps[victim] = ++clocks[lock];
+        }
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long hit = getHits(), total = hit + getMisses();
+        return total == 0 ? 0 : hit / (double) total;
+    }
+}
@@ -0,0 +1,90 @@
+package basic;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The vertices of road network in flat arrays sorted by vertex id, to look up a vertex by its id
+ *      vertexIds, longitudes, latitudes:   the vertices, ascending and distinct in id
+ *
+ * the arrays are buffers, so they can be either on heap or mapped from a snapshot file,
+ * and a point is only created when it is looked up
+ */
+public class RoadVertices {
+
+    final IntBuffer vertexIds;
+    final FloatBuffer longitudes;
+    final FloatBuffer latitudes;
+
+    private final int vertexNum;
+
+    public RoadVertices(IntBuffer _vertexIds, FloatBuffer _longitudes, FloatBuffer _latitudes) {
+        vertexIds = _vertexIds;
+        longitudes = _longitudes;
+        latitudes = _latitudes;
+        vertexNum = _vertexIds.limit();
+        if (longitudes.limit() != vertexNum || latitudes.limit() != vertexNum) {
+            throw new IllegalArgumentException("Error in RoadVertices: the sizes of arrays are inconsistent.");
+        }
+    }
+
+    // the given vertices are distinct in id
+    public static RoadVertices build(final Collection<SimplePoint> points) {
+        SimplePoint[] vertices = points.toArray(new SimplePoint[0]);
+        Arrays.sort(vertices, (p1, p2) -> Integer.compare(p1.pid, p2.pid));
+        int n = vertices.length;
+        int[] ids = new int[n];
+        float[] lngs = new float[n], lats = new float[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = vertices[i].pid;
+            lngs[i] = vertices[i].getLongitude();
+            lats[i] = vertices[i].getLatitude();
+        }
+        return new RoadVertices(IntBuffer.wrap(ids), FloatBuffer.wrap(lngs), FloatBuffer.wrap(lats));
+    }
+
+    public int getVertexNum() {
+        return vertexNum;
+    }
+
+    /** @return the index of the given vertex, or -1 if it isn't a vertex of road network */
+    public int find(int vid) {
+        // the ids are usually 0, 1, 2, ..., so the vertex is checked at its id first
+        if (vid >= 0 && vid < vertexNum && vertexIds.get(vid) == vid) {
+            return vid;
+        }
+        int low = 0, high = vertexNum - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = vertexIds.get(mid);
+            if (c < vid) {
+                low = mid + 1;
+            } else if (c > vid) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** @return a new point of the given vertex, or null if it isn't a vertex of road network */
+    public SimplePoint get(int vid) {
+        int i = find(vid);
+        return i < 0 ? null : new SimplePoint(vid, longitudes.get(i), latitudes.get(i));
+    }
+
+    public int getVertexId(int i) {
+        return vertexIds.get(i);
+    }
+
+    public float getLongitude(int i) {
+        return longitudes.get(i);
+    }
+
+    public float getLatitude(int i) {
+        return latitudes.get(i);
+    }
+}
@@ -29,6 +29,10 @@ public class SimplePoint {
         latitude = p.latitude;
     }
 
+    public int getId() {
+        return pid;
+    }
+
     public float getLongitude() {
         return longitude;
     }
@@ -59,16 +63,31 @@ public class SimplePoint {
         return dis;
     }
 
+    /**
+     * the squared equirectangular distance (unit: degree^2), where the longitude difference is scaled by the given cosine of latitude
+     * it is only for ranking nearby points, use getDistance for the distance in km
+     */
+    public static double getPlanarDistance(float lng_p1, float lat_p1, float lng_p2, float lat_p2, double cosLat) {
+        double dx = ((double) lng_p1 - lng_p2) * cosLat;
+        double dy = (double) lat_p1 - lat_p2;
+        return dx * dx + dy * dy;
+    }
+
     private static double rad(float d) {
         return d * Math.PI / 180.0;
     }
 
     @Override
     public int hashCode() {
+        return hashCode(longitude, latitude);
+    }
+
+    // the hash code of a location, also used by the trajectories that don't keep point objects
+    public static int hashCode(float lng, float lat) {
         int result = 0;
-        long tmp = Float.floatToIntBits(longitude);
+        long tmp = Float.floatToIntBits(lng);
         result = 31 * result + (int) (tmp ^ (tmp >>> 32));
-        tmp = Float.floatToIntBits(latitude);
+        tmp = Float.floatToIntBits(lat);
         result = 31 * result + (int) (tmp ^ (tmp >>> 32));
         return result;
     }
@@ -1,27 +1,54 @@
 package basic;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * the points are stored column by column in primitive arrays,
+ * so a point costs 16 bytes rather than a ComplexPoint object and its slot in a list
+ */
 public class Trajectory {
 
     // basic thing, every model needs it
-    private final List<ComplexPoint> pointSeq;
+    private final float[] longitudes;
+    private final float[] latitudes;
+    private final long[] timestamps;     // unit: second
+    private final int length;
 
     private final int userID;
     private final int tripID;     // one user may have multiple trips
 
     // default constructor
     public Trajectory(){
-        pointSeq = new ArrayList<>();
-        userID = -1;
-        tripID = -1;
+        this(-1, -1, new float[0], new float[0], new long[0], 0);
     }
 
     public Trajectory(final int uid, final int tid, List<ComplexPoint> seq) {
-        pointSeq = seq;
         userID = uid;
         tripID = tid;
+        length = seq.size();
+        longitudes = new float[length];
+        latitudes = new float[length];
+        timestamps = new long[length];
+        for (int i = 0; i < length; i++) {
+            ComplexPoint p = seq.get(i);
+            longitudes[i] = p.getLongitude();
+            latitudes[i] = p.getLatitude();
+            timestamps[i] = p.get_exactTime();
+        }
+    }
+
+    // the arrays are used as they are, only the first len points are valid
+    public Trajectory(final int uid, final int tid, float[] lngs, float[] lats, long[] times, int len) {
+        if (lngs.length < len || lats.length < len || times.length < len) {
+            throw new IllegalArgumentException("Error in Trajectory: the arrays are shorter than the length.");
+        }
+        userID = uid;
+        tripID = tid;
+        longitudes = lngs;
+        latitudes = lats;
+        timestamps = times;
+        length = len;
     }
 
     public int get_userId() {
@@ -33,23 +60,47 @@ public class Trajectory {
     }
 
     public int get_length() {
-        return pointSeq.size();
+        return length;
     }
 
+    // a new point object is created for each call, the primitive accessors below are preferred
     public ComplexPoint get_point_by_idx(int idx) {
-        if (idx < pointSeq.size()) {
-            return pointSeq.get(idx);
+        if (idx < length) {
+            return new ComplexPoint(longitudes[idx], latitudes[idx], timestamps[idx]);
         }
         return null;
     }
 
+    public float get_longitude(int idx) {
+        return longitudes[idx];
+    }
+
+    public float get_latitude(int idx) {
+        return latitudes[idx];
+    }
+
+    public long get_time(int idx) {
+        return timestamps[idx];
+    }
+
+    public interface PointVisitor {
+        void visit(int idx, float lng, float lat, long time);
+    }
+
+    // bulk iteration over all points without creating point objects
+    public void forEachPoint(PointVisitor visitor) {
+        for (int i = 0; i < length; i++) {
+            visitor.visit(i, longitudes[i], latitudes[i], timestamps[i]);
+        }
+    }
+
     @Override
     public int hashCode() {
         int result = 0;
         result += result * 31 + tripID;
-        result += result * 31 + pointSeq.size();
-        for (ComplexPoint geoPoint : pointSeq) {
-            result += result * 31 + geoPoint.hashCode();
+        result += result * 31 + length;
+        for (int i = 0; i < length; i++) {
+            result += result * 31 + SimplePoint.hashCode(longitudes[i], latitudes[i]);
         }
         return result;
     }
@@ -61,14 +112,47 @@ public class Trajectory {
         if (!(obj instanceof Trajectory trj))
             return false;
 
-        if (trj.tripID != this.tripID || trj.get_length() != pointSeq.size())
+        if (trj.tripID != this.tripID || trj.length != length)
             return false;
 
-        for (int i = 0; i < pointSeq.size(); i++) {
-            if (!pointSeq.get(i).equals(trj.get_point_by_idx(i))) {
-                return false;
+        // the same as comparing the points, whose equality only considers the location
+        return Arrays.equals(longitudes, 0, length, trj.longitudes, 0, length)
+                && Arrays.equals(latitudes, 0, length, trj.latitudes, 0, length);
+    }
+
+
+    /**
+     * to collect the points one by one, the arrays grow as needed
+     */
+    public static class Builder {
+        private float[] lngs = new float[64];
+        private float[] lats = new float[64];
+        private long[] times = new long[64];
+        private int size = 0;
+
+        public void add(float lng, float lat, long time) {
+            if (size == lngs.length) {
+                int capacity = size * 2;
+                lngs = Arrays.copyOf(lngs, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                times = Arrays.copyOf(times, capacity);
             }
+            lngs[size] = lng;
+            lats[size] = lat;
+            times[size] = time;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public Trajectory build(final int uid, final int tid) {
+            return new Trajectory(uid, tid, Arrays.copyOf(lngs, size), Arrays.copyOf(lats, size), Arrays.copyOf(times, size), size);
         }
-        return true;
     }
 }
@@ -0,0 +1,68 @@
+package index;
+
+import signatures.SparseVector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * Run a batch of queries against an index, which is read-only during the batch
+ *      the queries are split into blocks run by a fork-join pool, and each answer is put at the position of its query,
+ *      so the answers are the same as running the queries one by one, and in the same order
+ */
+public class BatchQuery {
+
+    private static final int BLOCK_SIZE = 64;     // # of queries run by each task
+
+    /**
+     * @param threadNum  # of threads, 1 for serial and 0 for all available cores
+     * @param query      a single query, which mustn't change any state shared by the queries
+     */
+    public static <T> List<T> run(final List<SparseVector> querySignatures, final int threadNum,
+                                  final Function<SparseVector, T> query) {
+        final Object[] answers = new Object[querySignatures.size()];
+        forEachBlock(answers.length, BLOCK_SIZE, threadNum, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                answers[i] = query.apply(querySignatures.get(i));
+            }
+        });
+
+        @SuppressWarnings("unchecked")
+        List<T> result = (List<T>) Arrays.asList(answers);
+        return result;
+    }
+
+    public interface BlockTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * run the task on each block [from, to) of [0, n), one by one or in parallel,
+     * the blocks are done, and their writes are visible, when it returns
+     */
+    public static void forEachBlock(final int n, final int blockSize, final int threadNum, final BlockTask task) {
+        final int threads = threadNum > 0 ? threadNum : Runtime.getRuntime().availableProcessors();
+        if (threads <= 1 || n <= blockSize) {
+            for (int from = 0; from < n; from += blockSize) {
+                task.run(from, Math.min(from + blockSize, n));
+            }
+            return;
+        }
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += blockSize) {
+            final int blockFrom = from, blockTo = Math.min(from + blockSize, n);
+            tasks.add(ForkJoinTask.adapt(() -> task.run(blockFrom, blockTo)));
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
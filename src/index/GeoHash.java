@@ -2,8 +2,6 @@ package index;
 
 import basic.SimplePoint;
 
-import java.util.Arrays;
-
 public class GeoHash {
 
     public static final float MIN_LAT = -90;
@@ -18,6 +16,7 @@ public class GeoHash {
     private static final int hashLength = 8; //经纬度转化为geohash长度
     private static final int latLength = 20; //纬度转化为二进制长度
     private static final int lngLength = 20; //经度转化为二进制长度
+    private static final int hashBits = lngLength + latLength;     // = hashLength * 5, i.e., 5 bits for each base32 char
 
 
     private static final char[] CHARS = {'0', '1', '2', '3', '4', '5', '6', '7',
@@ -26,94 +25,66 @@ public class GeoHash {
 
 
     public static String getGeoHash(SimplePoint p){
-        return getGeoHash_Base32(p.getLatitude(), p.getLongitude());
+        return toBase32(getGeoHashKey(p), hashBits);
     }
 
-    // given lat and lng, return its base32 string
-    private static String getGeoHash_Base32(double lat, double lng) {
+    // the same order as the base32 string of getGeoHash, for sorting points without building strings
+    public static long getGeoHashKey(SimplePoint p) {
+        return encode(p.getLatitude(), p.getLongitude(), hashBits);
+    }
 
-        boolean[] binaryHash = getGeoHash_Binary(lat, lng);
-        if (binaryHash == null) {
-            return null;
+    /**
+     * interleave the bits of longitude (the even bits, from the highest one) and latitude (the odd bits),
+     * i.e., the Morton key of the point, of which the base32 form is the GeoHash string
+     *
+     * @param bits  the precision, in [1, 62]; longitude gets the extra bit if it is odd
+     * @return the key in the lowest bits, so the keys of the same precision are ordered as their base32 strings
+     */
+    public static long encode(double lat, double lng, int bits) {
+        if (bits < 1 || bits > 62) {
+            throw new IllegalArgumentException("Error in GeoHash.encode: the binary length is illegal.");
         }
+        long lngBits = getHashBits(lng, MIN_LNG, MAX_LNG, bits - bits / 2);
+        long latBits = getHashBits(lat, MIN_LAT, MAX_LAT, bits / 2);
 
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < binaryHash.length; i = i + 5) {
-            boolean[] base32 = new boolean[5];
-            for (int j = 0; j < 5; j++) {
-                base32[j] = binaryHash[i + j];
-            }
-            char cha = getChar_Base32(base32);
-            if (cha == ' ') {
-                System.out.println("Error in GeoHash.getGeoHash_Base32: sth wrong.");
-                return null;
-            }
-            sb.append(cha);
+        long key = 0;
+        for (int i = bits - 1, lngIdx = bits - bits / 2 - 1, latIdx = bits / 2 - 1; i >= 0; i--) {
+            long bit = (bits - 1 - i) % 2 == 0 ? (lngBits >>> lngIdx--) & 1 : (latBits >>> latIdx--) & 1;
+            key |= bit << i;
         }
-        return sb.toString();
-    }
-
-    private static boolean[] getGeoHash_Binary(double lat, double lng) {
-        boolean[] latArray = getHashArray(lat, MIN_LAT, MAX_LAT, latLength);
-        boolean[] lngArray = getHashArray(lng, MIN_LNG, MAX_LNG, lngLength);
-        return mergeArray(latArray, lngArray);
+        return key;
     }
 
-    //  value: latitude or longitude
-    private static boolean[] getHashArray(double value, double min, double max, int length) {
-
+    // value: latitude or longitude, halve the range for each bit (from the highest one)
+    private static long getHashBits(double value, double min, double max, int length) {
         if (value < min || value > max) {
-            throw new IndexOutOfBoundsException("Error in GeoHash.getHashArray: value is out of range.");
-        }
-        if (length < 1) {
-            throw new IllegalArgumentException("Error in GeoHash.getHashArray: the binary length is illegal.");
+            throw new IndexOutOfBoundsException("Error in GeoHash.getHashBits: value is out of range.");
         }
 
-        boolean[] result = new boolean[length];
+        long result = 0;
         for (int i = 0; i < length; i++) {
             double mid = (min + max) / 2.0;
+            result <<= 1;
             if (value > mid) {
-                result[i] = true;
+                result |= 1;
                 min = mid;
             } else {
-                result[i] = false;
                 max = mid;
             }
         }
-
-        return result;
-    }
-
-    // mergeArray longitude-array(even) and latitude array(odd)
-    private static boolean[] mergeArray(boolean[] latArray, boolean[] lngArray) {
-        if (latArray == null || lngArray == null) {
-            return null;
-        }
-        boolean[] result = new boolean[lngArray.length + latArray.length];
-        Arrays.fill(result, false);
-
-        for (int i = 0; i < lngArray.length; i++) {
-            result[2 * i] = lngArray[i];
-        }
-        for (int i = 0; i < latArray.length; i++) {
-            result[2 * i + 1] = latArray[i];
-        }
         return result;
     }
 
-    private static char getChar_Base32(boolean[] base32) {
-
-        if (base32 == null || base32.length != 5) {
-            return ' ';
+    // only for display, the bits should be a multiple of 5
+    public static String toBase32(long key, int bits) {
+        if (bits % 5 != 0) {
+            throw new IllegalArgumentException("Error in GeoHash.toBase32: the binary length is not a multiple of 5.");
         }
-        int num = 0;
-        for (boolean bool : base32) {
-            num <<= 1;
-            if (bool) {
-                num += 1;
-            }
+        char[] chars = new char[bits / 5];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = CHARS[(int) (key >>> (bits - 5 * (i + 1))) & 31];
         }
-        return CHARS[num % CHARS.length];
+        return new String(chars);
     }
 
 }
@@ -0,0 +1,52 @@
+package index;
+
+/**
+ * The Hilbert curve over a 2^order * 2^order grid,
+ * the cells close on the curve are also close in space, which is better than the Z-order of GeoHash
+ */
+public class HilbertCurve {
+
+    /**
+     * @param order  in [1, 31]
+     * @param x      in [0, 2^order)
+     * @param y      in [0, 2^order)
+     * @return the position of cell (x, y) on the curve, in [0, 4^order)
+     */
+    public static long encode(int order, long x, long y) {
+        if (order < 1 || order > 31) {
+            throw new IllegalArgumentException("Error in HilbertCurve.encode: the order should be in [1, 31].");
+        }
+        final long n = 1L << order;
+        if (x < 0 || x >= n || y < 0 || y >= n) {
+            throw new IndexOutOfBoundsException("Error in HilbertCurve.encode: the cell is out of range.");
+        }
+        long d = 0;
+        for (long s = n >> 1; s > 0; s >>= 1) {
+            long rx = (x & s) > 0 ? 1 : 0;
+            long ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+
+            // rotate the quadrant, so the curve inside it starts and ends at the right corners
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * @return the position on the curve of a point in the given range, which is divided into a 2^order * 2^order grid
+     */
+    public static long encode(int order, double lng, double lat, double lng_min, double lng_max, double lat_min, double lat_max) {
+        final long max = (1L << order) - 1;
+        long x = lng_max > lng_min ? (long) ((lng - lng_min) / (lng_max - lng_min) * max) : 0;
+        long y = lat_max > lat_min ? (long) ((lat - lat_min) / (lat_max - lat_min) * max) : 0;
+        return encode(order, Math.min(Math.max(x, 0), max), Math.min(Math.max(y, 0), max));
+    }
+}
@@ -0,0 +1,332 @@
+package index.inverted;
+
+import index.AscendNeighbor;
+import index.BatchQuery;
+import index.rtree.RTree;
+import signatures.SparseVector;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An inverted index from each dimension to the posting list of the entities having it, in primitive arrays
+ *      dimensions:  dims[d] in ascending order, listStart[d+1], listMax[d] -- the max weight in the list
+ *      postings:    entity[p], weight[p]      -- the postings of dims[d] are in [listStart[d], listStart[d+1]),
+ *                                                sorted by entity number, i.e., the order the entities are given
+ *
+ * findKNN scores the entities document-at-a-time with MaxScore pruning:
+ * the lists are sorted by their upper bound (query weight * listMax), the ones whose bounds sum up below
+ * the k-th similarity so far can't make an entity alone, so only the others (essential lists) propose the candidates,
+ * and a candidate is dropped as soon as its partial similarity plus the bounds of the rest falls below the k-th similarity
+ *
+ * the similarity of a candidate is summed in ascending order of dimension, the same as SparseVector.dot,
+ * and the candidates are offered to the NNqueue in the order of entities, with the same rules as a linear scan,
+ * the dropped ones are less than the k-th similarity, which the NNqueue wouldn't take anyway,
+ * so the answers are exactly those of Linking.linearExecute
+ */
+public class InvertedIndex {
+
+    private static final double BOUND_SLACK = 1e-6;    // the bounds are summed in another order, so they are loosened a bit for rounding
+
+    final int entityNum;
+    final String[] entityIds;
+    final int[] dims, listStart, entity;
+    final double[] listMax, weight;
+
+    public final LongAdder scoredNum = new LongAdder();     // # of candidates fully scored by the queries so far, for evaluation
+
+    /**
+     * @param signatures  the signature of each entity, the empty ones are never found
+     */
+    public InvertedIndex(final String[] _entityIds, final SparseVector[] signatures) {
+        if (_entityIds.length != signatures.length) {
+            throw new IllegalArgumentException("Error in InvertedIndex: # of entities and signatures differ.");
+        }
+        entityNum = _entityIds.length;
+        entityIds = _entityIds;
+
+        // the distinct dimensions, and the # of postings of each one
+        int postingNum = 0;
+        for (SparseVector signature : signatures) {
+            postingNum += signature.size();
+        }
+        int[] allDims = new int[postingNum];
+        int n = 0;
+        for (SparseVector signature : signatures) {
+            for (int i = 0; i < signature.size(); i++) {
+                allDims[n++] = signature.getDimension(i);
+            }
+        }
+        Arrays.sort(allDims);
+        int dimNum = 0;
+        int[] counts = new int[postingNum];
+        for (int i = 0; i < postingNum; i++) {
+            if (i == 0 || allDims[i] != allDims[i - 1]) {
+                allDims[dimNum++] = allDims[i];
+            }
+            counts[dimNum - 1]++;
+        }
+        dims = Arrays.copyOf(allDims, dimNum);
+        listStart = new int[dimNum + 1];
+        for (int d = 0; d < dimNum; d++) {
+            listStart[d + 1] = listStart[d] + counts[d];
+        }
+
+        // fill the lists entity by entity, so each list is sorted by entity number
+        entity = new int[postingNum];
+        weight = new double[postingNum];
+        listMax = new double[dims.length];
+        int[] next = Arrays.copyOf(listStart, dims.length);
+        for (int e = 0; e < entityNum; e++) {
+            SparseVector signature = signatures[e];
+            for (int i = 0; i < signature.size(); i++) {
+                int d = Arrays.binarySearch(dims, signature.getDimension(i));
+                int p = next[d]++;
+                entity[p] = e;
+                weight[p] = signature.getWeight(i);
+                listMax[d] = Math.max(listMax[d], weight[p]);
+            }
+        }
+    }
+
+    public int getEntityNum() {
+        return entityNum;
+    }
+
+    public int getPostingNum() {
+        return entity.length;
+    }
+
+    /* ---------------------------------------- query functions ----------------------------------------- */
+
+    // findKNN of each query, run by the given # of threads (see BatchQuery)
+    public List<Queue<AscendNeighbor>> findKNN(List<SparseVector> querySignatures, int numOfK, int threadNum) {
+        return BatchQuery.run(querySignatures, threadNum, querySignature -> findKNN(querySignature, numOfK));
+    }
+
+    public Queue<AscendNeighbor> findKNN(SparseVector querySignature, int numOfK) {
+
+        Queue<AscendNeighbor> NNqueue = new PriorityQueue<>();          // ascending order of similarity
+
+        // the query terms having a posting list, in ascending order of dimension
+        int termNum = 0;
+        final int[] termList = new int[querySignature.size()];
+        final double[] termWeight = new double[querySignature.size()];
+        for (int i = 0; i < querySignature.size(); i++) {
+            int d = Arrays.binarySearch(dims, querySignature.getDimension(i));
+            if (d >= 0) {
+                termList[termNum] = d;
+                termWeight[termNum++] = querySignature.getWeight(i);
+            }
+        }
+        if (termNum == 0) {
+            return NNqueue;
+        }
+
+        // the terms in ascending order of their upper bounds, and the sum of the bounds up to each of them
+        Integer[] byBound = new Integer[termNum];
+        final double[] bound = new double[termNum];
+        for (int t = 0; t < termNum; t++) {
+            byBound[t] = t;
+            bound[t] = termWeight[t] * listMax[termList[t]];
+        }
+        Arrays.sort(byBound, Comparator.comparingDouble(t -> bound[t]));
+        final int[] order = new int[termNum];
+        final double[] prefixBound = new double[termNum];
+        for (int i = 0; i < termNum; i++) {
+            order[i] = byBound[i];
+            prefixBound[i] = (i > 0 ? prefixBound[i - 1] : 0) + bound[order[i]];
+        }
+
+        final int[] cursor = new int[termNum];      // the current posting of each term
+        for (int t = 0; t < termNum; t++) {
+            cursor[t] = listStart[termList[t]];
+        }
+
+        float minSimilarityOfNN = Float.NEGATIVE_INFINITY;
+        int firstEssential = 0;     // the terms order[0, firstEssential) are non-essential
+        long scored = 0;
+
+        while (true) {
+            // the next candidate is the smallest entity in the essential lists
+            int candidate = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < termNum; i++) {
+                int t = order[i];
+                if (cursor[t] < listStart[termList[t] + 1]) {
+                    candidate = Math.min(candidate, entity[cursor[t]]);
+                }
+            }
+            if (candidate == Integer.MAX_VALUE) {
+                break;
+            }
+
+            // the partial similarity from the essential lists, plus the bounds of the non-essential ones
+            double upperBound = firstEssential > 0 ? prefixBound[firstEssential - 1] : 0;
+            for (int i = firstEssential; i < termNum; i++) {
+                int t = order[i];
+                if (cursor[t] < listStart[termList[t] + 1] && entity[cursor[t]] == candidate) {
+                    upperBound += termWeight[t] * weight[cursor[t]];
+                }
+            }
+            // then the non-essential lists are checked from the largest bound, until the candidate is dropped
+            boolean dropped = false;
+            for (int i = firstEssential - 1; i >= 0 && !dropped; i--) {
+                int t = order[i];
+                upperBound -= bound[t];
+                cursor[t] = advance(cursor[t], listStart[termList[t] + 1], candidate);
+                if (cursor[t] < listStart[termList[t] + 1] && entity[cursor[t]] == candidate) {
+                    upperBound += termWeight[t] * weight[cursor[t]];
+                }
+                dropped = isPruned(upperBound, minSimilarityOfNN);
+            }
+            dropped = dropped || isPruned(upperBound, minSimilarityOfNN);
+
+            if (!dropped) {
+                // the same sum as SparseVector.dot
+                double dotProduct = 0;
+                for (int t = 0; t < termNum; t++) {
+                    if (cursor[t] < listStart[termList[t] + 1] && entity[cursor[t]] == candidate) {
+                        dotProduct += termWeight[t] * weight[cursor[t]];
+                    }
+                }
+                scored++;
+                float similarity = (float) dotProduct;
+                if (similarity > 0) {
+                    RTree.updateNNqueue(NNqueue, numOfK, entityIds[candidate], similarity);
+                    if (NNqueue.size() >= numOfK) {
+                        minSimilarityOfNN = NNqueue.peek().similarity;
+                        // the lists which can't make any entity alone any more become non-essential
+                        while (firstEssential < termNum && isPruned(prefixBound[firstEssential], minSimilarityOfNN)) {
+                            firstEssential++;
+                        }
+                    }
+                }
+            }
+
+            // move on from the candidate
+            for (int t = 0; t < termNum; t++) {
+                if (cursor[t] < listStart[termList[t] + 1] && entity[cursor[t]] == candidate) {
+                    cursor[t]++;
+                }
+            }
+        }
+
+        scoredNum.add(scored);
+        return NNqueue;
+    }
+
+    // any entity bounded by it is less than the k-th similarity, hence never taken by the NNqueue
+    private static boolean isPruned(double upperBound, float minSimilarityOfNN) {
+        return upperBound * (1 + BOUND_SLACK) < minSimilarityOfNN;
+    }
+
+    // the first posting in [from, to) whose entity is at least the target, by galloping and then binary search
+    private int advance(int from, int to, int target) {
+        if (from >= to || entity[from] >= target) {
+            return from;
+        }
+        int step = 1, lo = from;
+        while (lo + step < to && entity[lo + step] < target) {
+            lo += step;
+            step <<= 1;
+        }
+        int hi = Math.min(lo + step, to);
+        int p = Arrays.binarySearch(entity, lo + 1, hi, target);
+        return p >= 0 ? p : -p - 1;
+    }
+
+    /* ---------------------------------------- batch product ----------------------------------------- */
+
+    private static final int ENTITY_BLOCK = 4096;   // the similarities of a block of entities are accumulated in 32 KB
+    private static final int QUERY_BLOCK = 64;      // # of queries of each task
+
+    /**
+     * the top-k of all queries at once by the sparse matrix product Q * D^T, where the lists of this index are the columns of D
+     *      Q:      the queries packed into CSR rows, i.e., the list and the weight of each query dimension in this index
+     *      blocks: the blocks of queries run in parallel, and each one goes through the entities block by block,
+     *              where the postings of its rows within the entity block are accumulated into an array of the block size,
+     *              then the touched entities are offered to the heap of the row in ascending order
+     *
+     * the similarity of an entity is accumulated in ascending order of dimension, the same sum as SparseVector.dot,
+     * and the entities are offered in their order to a heap of the same rules as the NNqueue (see NeighborHeap),
+     * so the answers are exactly those of Linking.linearExecute, or findKNN one by one
+     */
+    public List<Queue<AscendNeighbor>> productKNN(List<SparseVector> querySignatures, int numOfK, int threadNum) {
+        final int queryNum = querySignatures.size();
+        final int[] rowStart = new int[queryNum + 1];
+        int nonzeroNum = 0;
+        for (SparseVector querySignature : querySignatures) {
+            nonzeroNum += querySignature.size();
+        }
+        final int[] rowList = new int[nonzeroNum];
+        final double[] rowWeight = new double[nonzeroNum];
+        int n = 0;
+        for (int q = 0; q < queryNum; q++) {
+            SparseVector querySignature = querySignatures.get(q);
+            for (int i = 0; i < querySignature.size(); i++) {
+                int d = Arrays.binarySearch(dims, querySignature.getDimension(i));
+                if (d >= 0) {
+                    rowList[n] = d;
+                    rowWeight[n++] = querySignature.getWeight(i);
+                }
+            }
+            rowStart[q + 1] = n;
+        }
+
+        final Object[] answers = new Object[queryNum];
+        BatchQuery.forEachBlock(queryNum, QUERY_BLOCK, threadNum, (from, to) -> {
+            double[] accumulator = new double[ENTITY_BLOCK];
+            boolean[] touched = new boolean[ENTITY_BLOCK];
+            int[] touchedList = new int[ENTITY_BLOCK];
+            int[] cursor = new int[rowStart[to] - rowStart[from]];     // the current posting of each nonzero of the rows
+            for (int p = rowStart[from]; p < rowStart[to]; p++) {
+                cursor[p - rowStart[from]] = listStart[rowList[p]];
+            }
+            NeighborHeap[] heaps = new NeighborHeap[to - from];
+            for (int q = from; q < to; q++) {
+                heaps[q - from] = new NeighborHeap();
+            }
+
+            for (int blockFrom = 0; blockFrom < entityNum; blockFrom += ENTITY_BLOCK) {
+                final int blockTo = Math.min(blockFrom + ENTITY_BLOCK, entityNum);
+                for (int q = from; q < to; q++) {
+                    int touchedNum = 0;
+                    for (int p = rowStart[q]; p < rowStart[q + 1]; p++) {
+                        final double queryWeight = rowWeight[p];
+                        final int end = listStart[rowList[p] + 1];
+                        int c = cursor[p - rowStart[from]];
+                        for (; c < end && entity[c] < blockTo; c++) {
+                            int e = entity[c] - blockFrom;
+                            if (!touched[e]) {
+                                touched[e] = true;
+                                touchedList[touchedNum++] = e;
+                            }
+                            accumulator[e] += queryWeight * weight[c];
+                        }
+                        cursor[p - rowStart[from]] = c;
+                    }
+
+                    Arrays.sort(touchedList, 0, touchedNum);
+                    NeighborHeap heap = heaps[q - from];
+                    for (int i = 0; i < touchedNum; i++) {
+                        int e = touchedList[i];
+                        float similarity = (float) accumulator[e];
+                        accumulator[e] = 0;
+                        touched[e] = false;
+                        if (similarity > 0) {
+                            heap.update(numOfK, blockFrom + e, similarity);
+                        }
+                    }
+                }
+            }
+
+            for (int q = from; q < to; q++) {
+                answers[q] = heaps[q - from].toQueue(entityIds);
+            }
+        });
+
+        @SuppressWarnings("unchecked")
+        List<Queue<AscendNeighbor>> result = (List<Queue<AscendNeighbor>>) (List<?>) Arrays.asList(answers);
+        return result;
+    }
+}
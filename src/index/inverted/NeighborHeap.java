@@ -0,0 +1,84 @@
+package index.inverted;
+
+import index.AscendNeighbor;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+ * The NNqueue of RTree.updateNNqueue in primitive arrays, i.e., a min-heap of (entity, similarity)
+ *
+ * it sifts exactly as PriorityQueue does, so the same neighbors are kept among the ties,
+ * and toQueue gives a PriorityQueue of the same layout, which is polled in the same order
+ */
+class NeighborHeap {
+    int[] entities = new int[8];
+    float[] similarities = new float[8];
+    int size = 0;
+
+    // the same as RTree.updateNNqueue, where the ties of the min similarity are all kept
+    void update(int numOfK, int entity, float similarity) {
+        if (size >= numOfK) {
+            float minSimilarity = similarities[0];
+            if (similarity < minSimilarity) {
+                return;
+            }
+            if (similarity > minSimilarity) {
+                poll();
+            }
+        }
+        add(entity, similarity);
+    }
+
+    private void add(int entity, float similarity) {
+        if (size == entities.length) {
+            entities = Arrays.copyOf(entities, size * 2);
+            similarities = Arrays.copyOf(similarities, size * 2);
+        }
+        int k = size++;
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (Float.compare(similarity, similarities[parent]) >= 0) {
+                break;
+            }
+            entities[k] = entities[parent];
+            similarities[k] = similarities[parent];
+            k = parent;
+        }
+        entities[k] = entity;
+        similarities[k] = similarity;
+    }
+
+    private void poll() {
+        int n = --size;
+        if (n > 0) {
+            int entity = entities[n];
+            float similarity = similarities[n];
+            int k = 0, half = n >>> 1;
+            while (k < half) {
+                int child = 2 * k + 1, right = child + 1;
+                if (right < n && Float.compare(similarities[child], similarities[right]) > 0) {
+                    child = right;
+                }
+                if (Float.compare(similarity, similarities[child]) <= 0) {
+                    break;
+                }
+                entities[k] = entities[child];
+                similarities[k] = similarities[child];
+                k = child;
+            }
+            entities[k] = entity;
+            similarities[k] = similarity;
+        }
+    }
+
+    // added in the order of the heap array, so nothing moves
+    Queue<AscendNeighbor> toQueue(final String[] entityIds) {
+        Queue<AscendNeighbor> NNqueue = new PriorityQueue<>(Math.max(1, size));
+        for (int i = 0; i < size; i++) {
+            NNqueue.add(new AscendNeighbor(entityIds[entities[i]], similarities[i]));
+        }
+        return NNqueue;
+    }
+}
@@ -1,10 +1,9 @@
 package index.rtree;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import signatures.MaxAccumulator;
+import signatures.SparseVector;
 
-import static signatures.Function.sortMapByValue;
+import java.util.List;
 
 public abstract class RTNode {
 
@@ -17,8 +16,13 @@ public abstract class RTNode {
      * Aggregated signature
      * recording each point's max TF-IDF value around its children-nodes
      * if it is null, then it is not a WR-tree node
+     *
+     * the merged signatures are accumulated in place,
+     * and the aggregator is sealed (sorted by dimension) only when it is read,
+     * which is safe for concurrent queries, but the changes (e.g., insertions) shouldn't run along with them
      */
-    public Map<Integer, Double> aggregator;
+    private SparseVector aggregator;
+    private volatile MaxAccumulator accumulator = null;     // the pending merges, null if it is sealed
 
     public RTNode(RTNode _parent, int _level) {
         this.parent = _parent;
@@ -35,20 +39,70 @@ public abstract class RTNode {
         return this.parent == null;
     }
 
-    public Set<Integer> getPointSet(){
+    public SparseVector getAggregator(){
         if(this.aggregator == null){
-            throw new IllegalArgumentException("Error in RTNode.getPointSet: it is not a WR-tree node.");
+            throw new IllegalArgumentException("Error in RTNode.getAggregator: it is not a WR-tree node.");
+        }
+        sealAggregator();
+        return this.aggregator;
+    }
+
+    public void setAggregator(SparseVector _aggregator) {
+        this.aggregator = _aggregator;
+        this.accumulator = null;
+    }
+
+    // turn the pending merges into the aggregator
+    public void sealAggregator() {
+        if (accumulator != null) {
+            synchronized (this) {   // the first reader seals it, and the others wait for it
+                if (accumulator != null) {
+                    aggregator = accumulator.toVector();
+                    accumulator = null;     // published along with the aggregator by the volatile write
+                }
+            }
         }
-        return this.aggregator.keySet();
     }
 
-    public void updateAggregator(Map<Integer, Double> _pid2TFIDF) {
-        _pid2TFIDF.forEach((pid, value) ->{
-            if(value > aggregator.getOrDefault(pid, 0.0)){
-                aggregator.put(pid, value);
+    // keep the max TF-IDF of each point, accumulated in place without any sorting
+    public void updateAggregator(SparseVector _pid2TFIDF) {
+        if (accumulator == null) {
+            if (aggregator.isEmpty()) {     // nothing to merge with, so it can be shared
+                aggregator = _pid2TFIDF;
+                return;
             }
-        });
-        sortMapByValue(aggregator);
+            accumulator = new MaxAccumulator(aggregator);
+        }
+        accumulator.add(_pid2TFIDF);
+    }
+
+    // the weight of a dimension in the aggregator, 0 if absent, without sealing it
+    public double getAggregatedWeight(int dim) {
+        return accumulator != null ? accumulator.get(dim) : getAggregator().get(dim);
+    }
+
+    public boolean hasAggregatedDimension(int dim) {
+        return accumulator != null ? accumulator.contains(dim) : getAggregator().contains(dim);
+    }
+
+    // overwrite or remove the weight of a dimension in place, e.g., after the child giving its max weight is removed
+    public void setAggregatedWeight(int dim, double weight) {
+        if (accumulator == null) {
+            accumulator = new MaxAccumulator(getAggregator());
+        }
+        accumulator.set(dim, weight);
+    }
+
+    public void removeAggregatedDimension(int dim) {
+        if (accumulator == null) {
+            accumulator = new MaxAccumulator(getAggregator());
+        }
+        accumulator.remove(dim);
+    }
+
+    // # of points in both the given signature and the aggregator, without sealing it
+    public int countCommon(SparseVector signature) {
+        return accumulator != null ? accumulator.countCommon(signature) : signature.countCommon(getAggregator());
     }
 
     // check if this node has extra space to add a new child
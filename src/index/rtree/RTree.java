@@ -1,12 +1,14 @@
 package index.rtree;
 
 import index.AscendNeighbor;
+import index.BatchQuery;
 import index.Calculate;
-import basic.SimplePoint;
+import signatures.SparseVector;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
-import static index.GeoHash.getGeoHash;
+import static index.GeoHash.getGeoHashKey;
 
 
 public abstract class RTree {
@@ -23,6 +25,8 @@ public abstract class RTree {
     public int rootLev;
     public int entityNum;   // # of taxis
 
+    public final LongAdder nodeAccessNum = new LongAdder();  // # of nodes visited by the queries so far, for evaluation
+
     // empty tree, only initialize parameters
     public RTree(int _branchFactor, int _leafCapacity, int _fanoutRatio) {
         branchFactor = _branchFactor;
@@ -33,7 +37,16 @@ public abstract class RTree {
 
     public abstract void insertElement(RTLeafElement toInsertElement);
     public abstract void overflowHandler(RTNode overflowNode, RTNode newBrotherNode);
-    public abstract Queue<AscendNeighbor> findKNN(Map<Integer, Double> querySignature, int numOfK);
+    public abstract Queue<AscendNeighbor> findKNN(SparseVector querySignature, int numOfK);
+    public abstract List<AscendNeighbor> findWithinSimilarity(SparseVector querySignature, float tau);
+
+    /**
+     * findKNN of each query, run by the given # of threads (see BatchQuery), while nothing changes the tree
+     * @return the NNqueue of each query, in the order of the queries
+     */
+    public List<Queue<AscendNeighbor>> findKNN(List<SparseVector> querySignatures, int numOfK, int threadNum) {
+        return BatchQuery.run(querySignatures, threadNum, querySignature -> findKNN(querySignature, numOfK));
+    }
 
     // insertion-based construction method
     public void constructRTree(List<RTLeafElement> elementList) {
@@ -56,22 +69,31 @@ public abstract class RTree {
         }
 
         // ========= need more than one parent nodes
-        elementList.sort((o1, o2) -> {
+        // the GeoHash key of the center point is computed once for each element, rather than in each comparison
+        List<KeyedElement> keyedList = new ArrayList<>(entityNum);
+        elementList.forEach(elem -> keyedList.add(new KeyedElement(getGeoHashKey(elem.mbr.getCenterPoint()), elem)));
+        keyedList.sort((o1, o2) -> {
             // two elements have the same MBR, then compare # of points
-            if (o1.mbr.equals(o2.mbr)) {
-                return Integer.compare(o1.getPointSetSize(), o2.getPointSetSize());
+            if (o1.element.mbr.equals(o2.element.mbr)) {
+                return Integer.compare(o1.element.getPointSetSize(), o2.element.getPointSetSize());
             }
             else { // compare the GeoHash of center points
-                SimplePoint p1 = o1.mbr.getCenterPoint();
-                SimplePoint p2 = o2.mbr.getCenterPoint();
-                return getGeoHash(p1).compareTo(getGeoHash(p2));
+                return Long.compare(o1.key, o2.key);
             }
         });
+        for (int i = 0; i < entityNum; i++) {
+            elementList.set(i, keyedList.get(i).element);
+        }
 
+        this.entityNum = 0;                              // counted again by the insertions
         elementList.forEach(this::insertElement);        // then insert them one by one
+        sealAggregators();
     }
 
-    public void scanLeafNode(final Rectangle queryMBR, final Map<Integer, Double> querySignature,
+    private record KeyedElement(long key, RTLeafElement element) {}
+
+    // only the given NNqueue is updated, so the concurrent queries don't share anything here
+    public void scanLeafNode(final Rectangle queryMBR, final SparseVector querySignature,
                              final List<RTLeafElement> candidates, final int numOfK, Queue<AscendNeighbor> NNqueue) {
         candidates.forEach(elem -> {
             if (queryMBR.isIntersection(elem.mbr)) {
@@ -108,6 +130,65 @@ public abstract class RTree {
         }
     }
 
+    /* ---------------------------------------- statistics ----------------------------------------- */
+
+    // seal the aggregators accumulated during the construction, otherwise they are sealed when first queried
+    public void sealAggregators() {
+        Deque<RTNode> stack = new ArrayDeque<>();
+        if (root != null) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            RTNode node = stack.pop();
+            node.sealAggregator();
+            if (!node.isLeaf()) {
+                ((RTDirNode) node).getChildren().forEach(stack::push);
+            }
+        }
+    }
+
+    public int getNodeNum() {
+        int nodeNum = 0;
+        Deque<RTNode> stack = new ArrayDeque<>();
+        if (root != null) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            RTNode node = stack.pop();
+            nodeNum++;
+            if (!node.isLeaf()) {
+                ((RTDirNode) node).getChildren().forEach(stack::push);
+            }
+        }
+        return nodeNum;
+    }
+
+    /**
+     * the overlap among the sibling nodes: the sum of the intersection areas of all sibling pairs,
+     * divided by the sum of the areas of all non-root nodes, so 0 means no overlap at all
+     */
+    public double computeOverlap() {
+        double intersection = 0, area = 0;
+        Deque<RTNode> stack = new ArrayDeque<>();
+        if (root != null && !root.isLeaf()) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            List<RTNode> children = ((RTDirNode) stack.pop()).getChildren();
+            for (int i = 0; i < children.size(); i++) {
+                Rectangle mbr = children.get(i).mbr;
+                area += mbr.computeArea();
+                for (int j = i + 1; j < children.size(); j++) {
+                    intersection += mbr.getIntersectArea(children.get(j).mbr);
+                }
+                if (!children.get(i).isLeaf()) {
+                    stack.push(children.get(i));
+                }
+            }
+        }
+        return area == 0 ? 0 : intersection / area;
+    }
+
     public void sortRTLeafElements(List<RTLeafElement> elements, final int fromIdx, final int elementNum, int targetDim) {
         List<RTLeafElement> tmpList = new ArrayList<>(elements.subList(fromIdx, fromIdx + elementNum));
         int dimIndex = targetDim - 1;
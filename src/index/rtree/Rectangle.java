@@ -3,12 +3,11 @@ package index.rtree;
 import main.Main;
 import signatures.PointSeq;
 import signatures.Sequential;
+import signatures.SparseVector;
 import signatures.Spatiotemporal;
 import org.apache.commons.lang3.tuple.Pair;
 import basic.SimplePoint;
 
-import java.util.Set;
-
 import static basic.SimplePoint.getDistance;
 
 
@@ -25,14 +24,15 @@ public class Rectangle implements Cloneable  {
     }
 
     /** initialize a rectangle from a TF-IDF vector */
-    public Rectangle(Set<Integer> keyIdSet){
+    public Rectangle(SparseVector vector){
         boolean sequential = Sequential.id2qgram != null;
         boolean spatiotemporal = Spatiotemporal.id2dimension != null;
         boolean st_grid = Spatiotemporal.gridST != null;
 
         // just for spatial
         boolean isFirstPoint = true;
-        for (int keyID : keyIdSet) {
+        for (int i = 0, n = vector.size(); i < n; i++) {
+            int keyID = vector.getDimension(i);
             Rectangle rec = null;
             if(sequential) {
                 PointSeq seq = Sequential.id2qgram.get(keyID);
@@ -45,12 +45,12 @@ public class Rectangle implements Cloneable  {
                 }
                 else {
                     Pair<Integer, Integer> dim = Spatiotemporal.id2dimension.get(keyID);
-                    SimplePoint point = Main.NNid2lnglat.get(dim.getLeft());
+                    SimplePoint point = Main.getPoint(dim.getLeft());
                     rec = new Rectangle(point, point);
                 }
             }
             else {  // point-based
-                SimplePoint point = Main.NNid2lnglat.get(keyID);
+                SimplePoint point = Main.getPoint(keyID);
                 rec = new Rectangle(point, point);
             }
 
@@ -178,7 +178,7 @@ public class Rectangle implements Cloneable  {
     }
 
     /** whether the parameter-rectangle is enclosed by this rectangle */
-    private boolean canEnclose(final Rectangle rectangle) {
+    public boolean canEnclose(final Rectangle rectangle) {
         // as long as one coordinate crosses the boundary, it is impossible to be enclosed
         for (int i = 0; i < dimension; i++) {
             if (this.getCoord_BottomLeft(i) > rectangle.getCoord_BottomLeft(i)
@@ -0,0 +1,146 @@
+package index.wrtree;
+
+import index.AscendNeighbor;
+import index.rtree.RTLeafElement;
+import index.rtree.RTNode;
+import signatures.SparseVector;
+
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * A WR-tree serving the queries while new entities are inserted
+ *
+ * an insertion copies the nodes on its path (copy-on-write) and then publishes a new root at once,
+ * so a query traverses an immutable snapshot without any lock, and never sees a half-done insertion
+ *      readers:  any # of threads, each query reads the latest published snapshot
+ *      writer:   the insertions are serialized, each one copies O(height) nodes
+ *
+ * the resulting tree is the same as inserting the elements by WRTree.insertElement,
+ * but the parent pointers are only kept for the latest snapshot, which no query follows anyway
+ */
+public class ConcurrentWRTree {
+
+    private final int branchFactor;
+    private final int leafCapacity;
+    private final int fanoutRatio;
+
+    private volatile WRTree snapshot;
+
+    /**
+     * @param tree  a built tree, which is taken over and shouldn't be changed elsewhere any more
+     */
+    public ConcurrentWRTree(WRTree tree) {
+        if (tree == null) {
+            throw new IllegalArgumentException("Error in ConcurrentWRTree: the tree is NULL.");
+        }
+        branchFactor = tree.branchFactor;
+        leafCapacity = tree.leafCapacity;
+        fanoutRatio = tree.fanoutRatio;
+        tree.sealAggregators();     // nothing is sealed lazily by the readers
+        snapshot = tree;
+    }
+
+    // the latest published tree, it won't change, so it can be queried repeatedly as of the same moment
+    public WRTree getSnapshot() {
+        return snapshot;
+    }
+
+    public int getEntityNum() {
+        return snapshot.entityNum;
+    }
+
+    public Queue<AscendNeighbor> findKNN(SparseVector querySignature, int numOfK) {
+        return snapshot.findKNN(querySignature, numOfK);
+    }
+
+    // all queries of the batch are answered by the same snapshot
+    public List<Queue<AscendNeighbor>> findKNN(List<SparseVector> querySignatures, int numOfK, int threadNum) {
+        return snapshot.findKNN(querySignatures, numOfK, threadNum);
+    }
+
+    public List<AscendNeighbor> findWithinSimilarity(SparseVector querySignature, float tau) {
+        return snapshot.findWithinSimilarity(querySignature, tau);
+    }
+
+    public synchronized void insertElement(RTLeafElement toInsertElement) {
+        if (toInsertElement == null) {
+            throw new IllegalArgumentException("Error in ConcurrentWRTree.insertElement: Null to be inserted.");
+        }
+        WRTree current = snapshot;
+
+        RTNode newRoot;
+        if (current.root == null) {
+            WRTLeafNode rootNode = new WRTLeafNode(null);
+            rootNode.addElement(toInsertElement);
+            newRoot = rootNode;
+        } else {
+            RTNode[] copies = insertCopy(current.root, toInsertElement);
+            if (copies.length == 1) {
+                newRoot = copies[0];
+            } else {    // the root is split, then create a new root
+                WRTDirNode rootNode = new WRTDirNode(null, copies[0].level + 1);
+                rootNode.addChildNode(copies[0]);
+                rootNode.addChildNode(copies[1]);
+                rootNode.sealAggregator();
+                newRoot = rootNode;
+            }
+        }
+
+        WRTree next = new WRTree(branchFactor, leafCapacity, fanoutRatio);
+        next.root = newRoot;
+        next.rootLev = newRoot.level;
+        next.entityNum = current.entityNum + 1;
+        snapshot = next;    // publish it, the nodes are visible to the readers along with the volatile write
+    }
+
+    /**
+     * insert the element into the copies of the nodes on its path, the given node is unchanged
+     *
+     * @return the copy of the given node, and its new brother node if it is split
+     */
+    private RTNode[] insertCopy(RTNode node, RTLeafElement toInsertElement) {
+        if (node.isLeaf()) {
+            WRTLeafNode copy = ((WRTLeafNode) node).copy();
+            if (copy.reachMaxCapacity(leafCapacity)) {
+                WRTLeafNode brotherNode = copy.splitAndShare(toInsertElement, (int) Math.max(leafCapacity * 1.0 / fanoutRatio, 2));
+                copy.sealAggregator();
+                brotherNode.sealAggregator();
+                return new RTNode[] { copy, brotherNode };
+            }
+            copy.addElement(toInsertElement);
+            copy.sealAggregator();
+            return new RTNode[] { copy };
+        }
+
+        // the same choice as WRTree.insertElement
+        WRTDirNode dirNode = (WRTDirNode) node;
+        int bestChildIdx = dirNode.chooseBestChild_MostCommonPoint(toInsertElement);
+        if (bestChildIdx == -1) {
+            bestChildIdx = dirNode.chooseBestChild_LeastEnlargement(toInsertElement.mbr);
+        }
+        RTNode bestChild = dirNode.getChildByID(bestChildIdx);
+        RTNode[] children = insertCopy(bestChild, toInsertElement);
+
+        WRTDirNode copy = dirNode.copy();
+        copy.replaceChildNode(bestChildIdx, children[0]);
+        bestChild.parent = null;    // it is replaced, and shouldn't keep the newer copies alive for the older snapshots
+        copy.mbr.enlargeRectangle(toInsertElement.mbr);
+        if (!WRTree.covers(copy, toInsertElement.signature)) {     // otherwise the aggregator is unchanged and shared
+            copy.setAggregator(SparseVector.max(copy.getAggregator(), toInsertElement.signature));
+        }
+        if (children.length == 1) {
+            return new RTNode[] { copy };
+        }
+
+        // the child is split
+        if (copy.reachMaxCapacity(branchFactor)) {
+            WRTDirNode brotherNode = copy.splitAndShare(children[1], (int) Math.max(branchFactor * 1.0 / fanoutRatio, 2));
+            copy.sealAggregator();
+            brotherNode.sealAggregator();
+            return new RTNode[] { copy, brotherNode };
+        }
+        copy.addCoveredChildNode(children[1]);
+        return new RTNode[] { copy };
+    }
+}
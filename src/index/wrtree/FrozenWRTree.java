@@ -0,0 +1,611 @@
+package index.wrtree;
+
+import index.AscendNeighbor;
+import index.BatchQuery;
+import index.rtree.RTLeafElement;
+import index.rtree.RTNode;
+import index.rtree.RTree;
+import index.rtree.Rectangle;
+import signatures.SparseVector;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A read-only WR-tree compiled into primitive arrays (struct of arrays), see WRTree.freeze
+ *      nodes:      level[n], mbr[4n] (lng_min, lat_min, lng_max, lat_max), firstChild[n], childNum[n]
+ *                  -- the children of a node are nodes (or elements for a leaf) in [first, first + num)
+ *      aggregators: aggStart[n+1], aggDims[], aggWeights[]
+ *      elements:   mbr[4m], sigStart[m+1], sigDims[], sigWeights[], entityId[m]
+ *
+ * the nodes are numbered level by level from the root, so the children of a node are consecutive,
+ * and the elements are numbered in the order of leaf nodes, the same as the sections of MappedWRTree
+ *
+ * the query loop runs over these arrays without any node object, list or rectangle,
+ * and it visits the nodes in the same order as WRTree.findKNN, hence the same answers,
+ * the queries only read the arrays, so any # of them can run concurrently
+ */
+public class FrozenWRTree {
+
+    final int nodeNum, elementNum, rootLev;
+    final int leafCapacity, branchFactor, fanoutRatio;
+    final int[] nodeLevel, firstChild, childNum, aggStart, aggDims, sigStart, sigDims;
+    final float[] nodeMbr, elementMbr;
+    final double[] aggWeights, sigWeights;
+    final String[] entityIds;
+
+    public final LongAdder nodeAccessNum = new LongAdder();  // # of nodes visited by the queries so far, for evaluation
+
+    FrozenWRTree(final WRTree tree) {
+        // number the nodes level by level, and the elements in the order of leaf nodes
+        List<RTNode> nodes = new ArrayList<>();
+        List<RTLeafElement> elements = new ArrayList<>();
+        if (tree.root != null) {
+            nodes.add(tree.root);
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            RTNode node = nodes.get(i);
+            if (node.isLeaf()) {
+                elements.addAll(((WRTLeafNode) node).getChildren());
+            } else {
+                nodes.addAll(((WRTDirNode) node).getChildren());
+            }
+        }
+        nodeNum = nodes.size();
+        elementNum = elements.size();
+        rootLev = tree.rootLev;
+        leafCapacity = tree.leafCapacity;
+        branchFactor = tree.branchFactor;
+        fanoutRatio = tree.fanoutRatio;
+
+        // nodes
+        nodeLevel = new int[nodeNum];
+        nodeMbr = new float[nodeNum * 4];
+        firstChild = new int[nodeNum];
+        childNum = new int[nodeNum];
+        aggStart = new int[nodeNum + 1];
+        int nextNode = 1, nextElement = 0;
+        for (int i = 0; i < nodeNum; i++) {
+            RTNode node = nodes.get(i);
+            nodeLevel[i] = node.level;
+            putMbr(nodeMbr, i, node.mbr);
+            childNum[i] = node.getChildNum();
+            if (node.isLeaf()) {
+                firstChild[i] = nextElement;
+                nextElement += childNum[i];
+            } else {
+                firstChild[i] = nextNode;
+                nextNode += childNum[i];
+            }
+            aggStart[i + 1] = aggStart[i] + node.getAggregator().size();
+        }
+        aggDims = new int[aggStart[nodeNum]];
+        aggWeights = new double[aggStart[nodeNum]];
+        for (int i = 0; i < nodeNum; i++) {
+            putVector(aggDims, aggWeights, aggStart[i], nodes.get(i).getAggregator());
+        }
+
+        // elements
+        elementMbr = new float[elementNum * 4];
+        sigStart = new int[elementNum + 1];
+        entityIds = new String[elementNum];
+        for (int e = 0; e < elementNum; e++) {
+            RTLeafElement elem = elements.get(e);
+            putMbr(elementMbr, e, elem.mbr);
+            sigStart[e + 1] = sigStart[e] + elem.signature.size();
+            entityIds[e] = elem.entityID;
+        }
+        sigDims = new int[sigStart[elementNum]];
+        sigWeights = new double[sigStart[elementNum]];
+        for (int e = 0; e < elementNum; e++) {
+            putVector(sigDims, sigWeights, sigStart[e], elements.get(e).signature);
+        }
+    }
+
+    private static void putMbr(float[] mbrs, int idx, Rectangle mbr) {
+        mbrs[idx * 4] = mbr.getCoord_BottomLeft(0);
+        mbrs[idx * 4 + 1] = mbr.getCoord_BottomLeft(1);
+        mbrs[idx * 4 + 2] = mbr.getCoord_TopRight(0);
+        mbrs[idx * 4 + 3] = mbr.getCoord_TopRight(1);
+    }
+
+    private static void putVector(int[] dims, double[] weights, int from, SparseVector vector) {
+        for (int i = 0, n = vector.size(); i < n; i++) {
+            dims[from + i] = vector.getDimension(i);
+            weights[from + i] = vector.getWeight(i);
+        }
+    }
+
+    public int getNodeNum() {
+        return nodeNum;
+    }
+
+    public int getElementNum() {
+        return elementNum;
+    }
+
+    public int getRootLev() {
+        return rootLev;
+    }
+
+    /* ---------------------------------------- query functions ----------------------------------------- */
+
+    /**
+     * findKNN of each query, run by the given # of threads (see BatchQuery)
+     * @return the NNqueue of each query, in the order of the queries
+     */
+    public List<Queue<AscendNeighbor>> findKNN(List<SparseVector> querySignatures, int numOfK, int threadNum) {
+        return BatchQuery.run(querySignatures, threadNum, querySignature -> findKNN(querySignature, numOfK));
+    }
+
+    public Queue<AscendNeighbor> findKNN(SparseVector querySignature, int numOfK) {
+
+        if (nodeNum == 0) {
+            throw new IllegalArgumentException("Error in findKNN by FrozenWRTree: The tree is empty.");
+        }
+        Rectangle queryMBR = new Rectangle(querySignature);
+        final float lng_min = queryMBR.getCoord_BottomLeft(0), lat_min = queryMBR.getCoord_BottomLeft(1);
+        final float lng_max = queryMBR.getCoord_TopRight(0), lat_max = queryMBR.getCoord_TopRight(1);
+
+        final int querySize = querySignature.size();
+        final int[] queryDims = new int[querySize];
+        final double[] queryWeights = new double[querySize];
+        putVector(queryDims, queryWeights, 0, querySignature);
+
+        CandidateHeap candidates = new CandidateHeap();
+        candidates.add(0, -1);      // no need to compute upper bound for root node, just add it
+
+        Queue<AscendNeighbor> NNqueue = new PriorityQueue<>();          // ascending order of similarity
+
+        float minSimilarityOfNN;
+
+        while (candidates.size > 0) {
+
+            minSimilarityOfNN = NNqueue.isEmpty() ? Float.NEGATIVE_INFINITY : NNqueue.peek().similarity;
+
+            float upperBoundOfCandidate = candidates.bounds[0];
+            if (upperBoundOfCandidate < minSimilarityOfNN && NNqueue.size() >= numOfK)
+                break;
+            int curNode = candidates.poll();
+            nodeAccessNum.increment();
+
+            int from = firstChild[curNode], to = from + childNum[curNode];
+            if (nodeLevel[curNode] == 0) {
+                // scan all elements of this leaf node
+                for (int e = from; e < to; e++) {
+                    if (intersects(elementMbr, e, lng_min, lat_min, lng_max, lat_max)) {
+                        float similarity = (float) dot(queryDims, queryWeights, sigDims, sigWeights, sigStart[e], sigStart[e + 1]);
+                        if (similarity > 0 && (NNqueue.size() < numOfK || similarity >= NNqueue.peek().similarity)) {
+                            RTree.updateNNqueue(NNqueue, numOfK, entityIds[e], similarity);
+                        }
+                    }
+                }
+            } else {
+                for (int child = from; child < to; child++) {
+                    if (intersects(nodeMbr, child, lng_min, lat_min, lng_max, lat_max)) {
+                        float upperBound = (float) dot(queryDims, queryWeights, aggDims, aggWeights, aggStart[child], aggStart[child + 1]);
+                        if (NNqueue.size() < numOfK || upperBound >= minSimilarityOfNN) {
+                            candidates.add(child, upperBound);
+                        }
+                    }
+                }
+            }
+        }
+
+        return NNqueue;
+    }
+
+    /**
+     * the same as WRTree.findWithinSimilarity, including the order of the ties
+     */
+    public List<AscendNeighbor> findWithinSimilarity(SparseVector querySignature, float tau) {
+
+        if (nodeNum == 0) {
+            throw new IllegalArgumentException("Error in findWithinSimilarity by FrozenWRTree: The tree is empty.");
+        }
+        Rectangle queryMBR = new Rectangle(querySignature);
+        final float lng_min = queryMBR.getCoord_BottomLeft(0), lat_min = queryMBR.getCoord_BottomLeft(1);
+        final float lng_max = queryMBR.getCoord_TopRight(0), lat_max = queryMBR.getCoord_TopRight(1);
+
+        final int querySize = querySignature.size();
+        final int[] queryDims = new int[querySize];
+        final double[] queryWeights = new double[querySize];
+        putVector(queryDims, queryWeights, 0, querySignature);
+
+        List<AscendNeighbor> neighbors = new ArrayList<>();
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int curNode = stack[--top];
+            nodeAccessNum.increment();
+
+            int from = firstChild[curNode], to = from + childNum[curNode];
+            if (nodeLevel[curNode] == 0) {
+                for (int e = from; e < to; e++) {
+                    if (intersects(elementMbr, e, lng_min, lat_min, lng_max, lat_max)) {
+                        float similarity = (float) dot(queryDims, queryWeights, sigDims, sigWeights, sigStart[e], sigStart[e + 1]);
+                        if (similarity > 0 && similarity >= tau) {
+                            neighbors.add(new AscendNeighbor(entityIds[e], similarity));
+                        }
+                    }
+                }
+            } else {
+                // pushed backwards, so the children are visited in order
+                for (int child = to - 1; child >= from; child--) {
+                    if (intersects(nodeMbr, child, lng_min, lat_min, lng_max, lat_max)
+                            && (float) dot(queryDims, queryWeights, aggDims, aggWeights, aggStart[child], aggStart[child + 1]) >= tau) {
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top++] = child;
+                    }
+                }
+            }
+        }
+
+        neighbors.sort(Collections.reverseOrder());     // stable, the ties keep the order of visiting
+        return neighbors;
+    }
+
+    /**
+     * --------------------------- dual-tree similarity join ---------------------------------------
+     * the top-k neighbors in this tree of every entity indexed by the query tree,
+     * both trees are traversed together, so a node pair is examined once for a whole group of queries,
+     * rather than once for each of them
+     *      node pairs:  pruned if their MBRs are disjoint, or the upper bound of their aggregators
+     *                   is less than the min k-th similarity of the queries below the query node
+     *      query leaf:  below a leaf node of the query tree, each query is checked on its own as in findKNN,
+     *                   and its NNqueue is updated in the same way
+     *
+     * the similarities are the same as findKNN, only the ties at the k-th similarity may be kept differently,
+     * since the candidates are visited in another order
+     */
+
+    public long nodePairNum = 0;    // # of node pairs examined by the joins so far, for evaluation
+
+    /**
+     * @return the NNqueue of each query entity, where nothing is found for some entities (e.g., empty signatures)
+     */
+    public Map<String, Queue<AscendNeighbor>> joinKNN(final FrozenWRTree queryTree, final int numOfK) {
+        Map<String, Queue<AscendNeighbor>> result = new HashMap<>();
+        if (nodeNum == 0 || queryTree.nodeNum == 0) {
+            return result;
+        }
+        Join join = new Join(queryTree, numOfK);
+        for (int q = 0; q < queryTree.elementNum; q++) {
+            join.seed(q);
+        }
+        join.visit(0, 0);
+        for (int q = 0; q < queryTree.elementNum; q++) {
+            result.put(queryTree.entityIds[q], join.NNqueues.get(q));
+        }
+        return result;
+    }
+
+    private class Join {
+        final FrozenWRTree queries;
+        final int numOfK;
+        final List<Queue<AscendNeighbor>> NNqueues;
+        final float[] nodeBound;    // the min k-th similarity of the queries below each query node, only increasing
+        final int[] seedLeaf;       // the leaf scanned first for each query, or -1
+
+        Join(FrozenWRTree _queries, int _numOfK) {
+            queries = _queries;
+            numOfK = _numOfK;
+            NNqueues = new ArrayList<>(queries.elementNum);
+            for (int q = 0; q < queries.elementNum; q++) {
+                NNqueues.add(new PriorityQueue<>());        // ascending order of similarity
+            }
+            nodeBound = new float[queries.nodeNum];
+            Arrays.fill(nodeBound, Float.NEGATIVE_INFINITY);
+            seedLeaf = new int[queries.elementNum];
+            Arrays.fill(seedLeaf, -1);
+        }
+
+        /**
+         * a greedy descent to the leaf with the largest upper bound, whose elements are scanned first,
+         * so each query starts the join with a tight k-th similarity, which the join alone would find late
+         */
+        void seed(int q) {
+            int qStart = queries.sigStart[q], qEnd = queries.sigStart[q + 1];
+            int node = 0;
+            while (nodeLevel[node] > 0) {
+                int best = -1;
+                float bestBound = 0;
+                for (int child = firstChild[node], to = child + childNum[node]; child < to; child++) {
+                    if (intersects(queries.elementMbr, q, nodeMbr, child)) {
+                        float upperBound = (float) dot(queries.sigDims, queries.sigWeights, qStart, qEnd, aggDims, aggWeights, aggStart[child], aggStart[child + 1]);
+                        if (upperBound > bestBound) {
+                            best = child;
+                            bestBound = upperBound;
+                        }
+                    }
+                }
+                if (best < 0) {
+                    return;
+                }
+                node = best;
+            }
+            seedLeaf[q] = node;
+            scanLeaf(q, firstChild[node], firstChild[node] + childNum[node]);
+        }
+
+        // the k-th similarity of a query so far, any similarity below it can be skipped
+        float queryBound(int q) {
+            return NNqueues.get(q).size() < numOfK ? Float.NEGATIVE_INFINITY : NNqueues.get(q).peek().similarity;
+        }
+
+        // the pair of query node qNode and node rNode of this tree, they intersect and aren't pruned
+        void visit(int qNode, int rNode) {
+            nodePairNum++;
+            int qLevel = queries.nodeLevel[qNode], rLevel = nodeLevel[rNode];
+            int qFrom = queries.firstChild[qNode], qTo = qFrom + queries.childNum[qNode];
+            int rFrom = firstChild[rNode], rTo = rFrom + childNum[rNode];
+
+            if (qLevel == 0) {
+                // from now on, each query of this leaf node is pruned on its own
+                int[] active = new int[qTo - qFrom];
+                int n = 0;
+                for (int q = qFrom; q < qTo; q++) {
+                    if (intersects(queries.elementMbr, q, nodeMbr, rNode) && queryUpperBound(q, rNode) >= queryBound(q)) {
+                        active[n++] = q;
+                    }
+                }
+                descend(active, n, rNode);
+                float bound = Float.POSITIVE_INFINITY;
+                for (int q = qFrom; q < qTo; q++) {
+                    bound = Math.min(bound, queryBound(q));
+                }
+                nodeBound[qNode] = bound;
+            } else if (rLevel == 0 || qLevel >= rLevel) {
+                // split the query node
+                float bound = Float.POSITIVE_INFINITY;
+                for (int child = qFrom; child < qTo; child++) {
+                    if (intersects(queries.nodeMbr, child, nodeMbr, rNode) && pairBound(child, rNode) >= nodeBound[child]) {
+                        visit(child, rNode);
+                    }
+                    bound = Math.min(bound, nodeBound[child]);
+                }
+                nodeBound[qNode] = Math.max(nodeBound[qNode], bound);
+            } else {
+                // split the node of this tree, the children with larger upper bounds first, so the bounds rise quickly
+                int[] children = new int[rTo - rFrom];
+                float[] upperBounds = new float[rTo - rFrom];
+                int n = 0;
+                for (int child = rFrom; child < rTo; child++) {
+                    if (intersects(queries.nodeMbr, qNode, nodeMbr, child)) {
+                        float upperBound = pairBound(qNode, child);
+                        if (upperBound >= nodeBound[qNode]) {
+                            int i = n++;
+                            while (i > 0 && upperBounds[i - 1] < upperBound) {
+                                children[i] = children[i - 1];
+                                upperBounds[i] = upperBounds[i - 1];
+                                i--;
+                            }
+                            children[i] = child;
+                            upperBounds[i] = upperBound;
+                        }
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    if (upperBounds[i] >= nodeBound[qNode]) {     // the bound may have risen meanwhile
+                        visit(qNode, children[i]);
+                    }
+                }
+            }
+        }
+
+        // every query (and its signature) is covered by the aggregator of its node, so is every element, hence an upper bound
+        float pairBound(int qNode, int rNode) {
+            return (float) dot(queries.aggDims, queries.aggWeights, queries.aggStart[qNode], queries.aggStart[qNode + 1],
+                    aggDims, aggWeights, aggStart[rNode], aggStart[rNode + 1]);
+        }
+
+        /**
+         * the given queries all pass the checks of rNode, which are the same as findKNN does for each query,
+         * the children are visited in descending order of the max upper bound of the queries, so their bounds rise quickly
+         */
+        void descend(int[] active, int n, int rNode) {
+            int rFrom = firstChild[rNode], rTo = rFrom + childNum[rNode];
+            if (nodeLevel[rNode] == 0) {
+                for (int i = 0; i < n; i++) {
+                    if (rNode != seedLeaf[active[i]]) {
+                        scanLeaf(active[i], rFrom, rTo);
+                    }
+                }
+                return;
+            }
+            int num = rTo - rFrom;
+            float[][] upperBounds = new float[num][n];
+            int[] order = new int[num];
+            float[] maxBounds = new float[num];
+            int m = 0;
+            for (int c = 0; c < num; c++) {
+                float maxBound = Float.NEGATIVE_INFINITY;
+                for (int i = 0; i < n; i++) {
+                    int q = active[i];
+                    float upperBound = intersects(queries.elementMbr, q, nodeMbr, rFrom + c) ? queryUpperBound(q, rFrom + c) : Float.NEGATIVE_INFINITY;
+                    upperBounds[c][i] = upperBound;
+                    if (upperBound != Float.NEGATIVE_INFINITY && upperBound >= queryBound(q)) {
+                        maxBound = Math.max(maxBound, upperBound);
+                    }
+                }
+                if (maxBound != Float.NEGATIVE_INFINITY) {
+                    int j = m++;
+                    while (j > 0 && maxBounds[j - 1] < maxBound) {
+                        order[j] = order[j - 1];
+                        maxBounds[j] = maxBounds[j - 1];
+                        j--;
+                    }
+                    order[j] = c;
+                    maxBounds[j] = maxBound;
+                }
+            }
+            int[] sub = new int[n];
+            for (int j = 0; j < m; j++) {
+                int c = order[j], k = 0;
+                for (int i = 0; i < n; i++) {
+                    // the bounds may have risen meanwhile
+                    if (upperBounds[c][i] != Float.NEGATIVE_INFINITY && upperBounds[c][i] >= queryBound(active[i])) {
+                        sub[k++] = active[i];
+                    }
+                }
+                if (k > 0) {
+                    descend(sub, k, rFrom + c);
+                }
+            }
+        }
+
+        // the same upper bound as findKNN computes between a query and a node
+        float queryUpperBound(int q, int rNode) {
+            return (float) dot(queries.sigDims, queries.sigWeights, queries.sigStart[q], queries.sigStart[q + 1],
+                    aggDims, aggWeights, aggStart[rNode], aggStart[rNode + 1]);
+        }
+
+        void scanLeaf(int q, int rFrom, int rTo) {
+            int qStart = queries.sigStart[q], qEnd = queries.sigStart[q + 1];
+            Queue<AscendNeighbor> NNqueue = NNqueues.get(q);
+            for (int e = rFrom; e < rTo; e++) {
+                if (intersects(queries.elementMbr, q, elementMbr, e)) {
+                    float similarity = (float) dot(queries.sigDims, queries.sigWeights, qStart, qEnd, sigDims, sigWeights, sigStart[e], sigStart[e + 1]);
+                    if (similarity > 0 && (NNqueue.size() < numOfK || similarity >= NNqueue.peek().similarity)) {
+                        RTree.updateNNqueue(NNqueue, numOfK, entityIds[e], similarity);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean intersects(float[] mbrs1, int idx1, float[] mbrs2, int idx2) {
+        int pos = idx2 * 4;
+        return intersects(mbrs1, idx1, mbrs2[pos], mbrs2[pos + 1], mbrs2[pos + 2], mbrs2[pos + 3]);
+    }
+
+    // the same as SparseVector.dot between two ranges of the arrays, summed in ascending order of dimension
+    private static double dot(int[] dims1, double[] weights1, int from1, int to1, int[] dims2, double[] weights2, int from2, int to2) {
+        if (to1 - from1 > to2 - from2) {
+            return dot(dims2, weights2, from2, to2, dims1, weights1, from1, to1);
+        }
+        double dotProduct = 0;
+        final int n = to1 - from1, m = to2 - from2;
+        if ((long) n * (32 - Integer.numberOfLeadingZeros(m)) < m) {
+            int lo = from2;
+            for (int i = from1; i < to1 && lo < to2; i++) {
+                int j = Arrays.binarySearch(dims2, lo, to2, dims1[i]);
+                if (j >= 0) {
+                    dotProduct += weights1[i] * weights2[j];
+                    lo = j + 1;
+                } else {
+                    lo = -j - 1;
+                }
+            }
+            return dotProduct;
+        }
+        int i = from1, j = from2;
+        while (i < to1 && j < to2) {
+            if (dims1[i] < dims2[j]) {
+                i++;
+            } else if (dims1[i] > dims2[j]) {
+                j++;
+            } else {
+                dotProduct += weights1[i++] * weights2[j++];
+            }
+        }
+        return dotProduct;
+    }
+
+    // the same as Rectangle.isIntersection
+    private static boolean intersects(float[] mbrs, int idx, float lng_min, float lat_min, float lng_max, float lat_max) {
+        int pos = idx * 4;
+        return !(mbrs[pos] > lng_max || mbrs[pos + 2] < lng_min || mbrs[pos + 1] > lat_max || mbrs[pos + 3] < lat_min);
+    }
+
+    /**
+     * the same as SparseVector.dot, the common dimensions are summed in ascending order, so the sum is exactly the same,
+     * but they are searched rather than merged if the other vector is much longer, e.g., an aggregator near the root
+     */
+    private static double dot(int[] queryDims, double[] queryWeights, int[] dims, double[] weights, int from, int to) {
+        double dotProduct = 0;
+        final int n = queryDims.length;
+        if ((long) n * (32 - Integer.numberOfLeadingZeros(to - from)) < to - from) {
+            int lo = from;
+            for (int i = 0; i < n && lo < to; i++) {
+                int j = Arrays.binarySearch(dims, lo, to, queryDims[i]);
+                if (j >= 0) {
+                    dotProduct += queryWeights[i] * weights[j];
+                    lo = j + 1;
+                } else {
+                    lo = -j - 1;
+                }
+            }
+            return dotProduct;
+        }
+        int i = 0, j = from;
+        while (i < n && j < to) {
+            int d1 = queryDims[i], d2 = dims[j];
+            if (d1 < d2) {
+                i++;
+            } else if (d1 > d2) {
+                j++;
+            } else {
+                dotProduct += queryWeights[i++] * weights[j++];
+            }
+        }
+        return dotProduct;
+    }
+
+    /**
+     * the candidate nodes in descending order of upper bound, in primitive arrays,
+     * it sifts exactly as PriorityQueue<DescendNode>, so the ties are polled in the same order as WRTree.findKNN
+     */
+    private static class CandidateHeap {
+        int[] nodes = new int[64];
+        float[] bounds = new float[64];
+        int size = 0;
+
+        void add(int node, float upperBound) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                bounds = Arrays.copyOf(bounds, size * 2);
+            }
+            int k = size++;
+            while (k > 0) {
+                int parent = (k - 1) >>> 1;
+                if (Float.compare(bounds[parent], upperBound) >= 0) {
+                    break;
+                }
+                nodes[k] = nodes[parent];
+                bounds[k] = bounds[parent];
+                k = parent;
+            }
+            nodes[k] = node;
+            bounds[k] = upperBound;
+        }
+
+        int poll() {
+            int result = nodes[0];
+            int n = --size;
+            if (n > 0) {
+                int node = nodes[n];
+                float upperBound = bounds[n];
+                int k = 0, half = n >>> 1;
+                while (k < half) {
+                    int child = 2 * k + 1, right = child + 1;
+                    if (right < n && Float.compare(bounds[right], bounds[child]) > 0) {
+                        child = right;
+                    }
+                    if (Float.compare(bounds[child], upperBound) <= 0) {
+                        break;
+                    }
+                    nodes[k] = nodes[child];
+                    bounds[k] = bounds[child];
+                    k = child;
+                }
+                nodes[k] = node;
+                bounds[k] = upperBound;
+            }
+            return result;
+        }
+    }
+}
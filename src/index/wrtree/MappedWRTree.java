@@ -0,0 +1,365 @@
+package index.wrtree;
+
+import index.AscendNeighbor;
+import index.BatchQuery;
+import index.rtree.RTLeafElement;
+import index.rtree.RTree;
+import index.rtree.Rectangle;
+import io.AtomicFile;
+import signatures.SparseVector;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * A read-only WR-tree in flat sections (little endian), written after the construction and mapped from disk,
+ * so the queries can be answered without rebuilding the tree
+ *      header:     magic, version, checksum of the indexed elements, # of nodes, # of elements, rootLev,
+ *                  # of aggregator dimensions, # of signature dimensions, # of bytes of entity ids, capacity parameters
+ *      nodes:      int level[n], float mbr[4n] (lng_min, lat_min, lng_max, lat_max),
+ *                  int firstChild[n], int childNum[n]     -- the children of a node are nodes (or elements for a leaf) in [first, first + num)
+ *      aggregators: int aggStart[n+1], int aggDims[], double aggWeights[]
+ *      elements:   float mbr[4m], int sigStart[m+1], int sigDims[], double sigWeights[],
+ *                  int idStart[m+1], byte id[]   -- the entity ids in UTF-8
+ *
+ * the nodes are numbered level by level from the root, so the children of a node are consecutive,
+ * and the elements are numbered in the order of leaf nodes, each section is aligned to 8 bytes
+ *
+ * findKNN visits the nodes in the same order as WRTree.findKNN, hence the same answers,
+ * the sections are only read at absolute positions, so any # of queries can run concurrently
+ */
+public class MappedWRTree {
+
+    private static final int MAGIC = 0x57525446;     // "WRTF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;      // padded to 8 bytes
+
+    private final int nodeNum, elementNum, rootLev;
+    private final IntBuffer nodeLevel, firstChild, childNum, aggStart, aggDims, sigStart, sigDims, idStart;
+    private final FloatBuffer nodeMbr, elementMbr;
+    private final DoubleBuffer aggWeights, sigWeights;
+    private final ByteBuffer idBytes;
+
+    public final LongAdder nodeAccessNum = new LongAdder();  // # of nodes visited by the queries so far, for evaluation
+
+    private MappedWRTree(ByteBuffer buffer) {
+        nodeNum = buffer.getInt(16);
+        elementNum = buffer.getInt(20);
+        rootLev = buffer.getInt(24);
+        int aggDimNum = buffer.getInt(28), sigDimNum = buffer.getInt(32), idByteNum = buffer.getInt(36);
+
+        Sections sections = new Sections(buffer);
+        nodeLevel = sections.next(nodeNum * 4).asIntBuffer();
+        nodeMbr = sections.next(nodeNum * 16).asFloatBuffer();
+        firstChild = sections.next(nodeNum * 4).asIntBuffer();
+        childNum = sections.next(nodeNum * 4).asIntBuffer();
+        aggStart = sections.next((nodeNum + 1) * 4).asIntBuffer();
+        aggDims = sections.next(aggDimNum * 4).asIntBuffer();
+        aggWeights = sections.next(aggDimNum * 8).asDoubleBuffer();
+        elementMbr = sections.next(elementNum * 16).asFloatBuffer();
+        sigStart = sections.next((elementNum + 1) * 4).asIntBuffer();
+        sigDims = sections.next(sigDimNum * 4).asIntBuffer();
+        sigWeights = sections.next(sigDimNum * 8).asDoubleBuffer();
+        idStart = sections.next((elementNum + 1) * 4).asIntBuffer();
+        idBytes = sections.next(idByteNum);
+    }
+
+    // the consecutive sections after the header, each one starts at a multiple of 8 bytes
+    private static class Sections {
+        private final ByteBuffer buffer;
+        private int pos = HEADER_SIZE;
+
+        Sections(ByteBuffer _buffer) {
+            buffer = _buffer;
+        }
+
+        ByteBuffer next(int length) {
+            ByteBuffer section = buffer.slice(pos, length).order(ByteOrder.LITTLE_ENDIAN);
+            pos = align(pos + length);
+            return section;
+        }
+    }
+
+    private static int align(int pos) {
+        return pos + (8 - pos % 8) % 8;
+    }
+
+    /**
+     * the checksum of the elements to be indexed and the parameters of the tree, to detect a stale file
+     */
+    public static long checksum(final List<RTLeafElement> elementList, final int capacity, final int fanoutRatio,
+                                final String bulkLoading) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(capacity).putInt(fanoutRatio).putInt(elementList.size()).flip();
+        crc.update(buffer);
+        crc.update(bulkLoading.toLowerCase().getBytes(StandardCharsets.UTF_8));
+        for (RTLeafElement elem : elementList) {
+            crc.update(elem.entityID.getBytes(StandardCharsets.UTF_8));
+            buffer.clear();
+            putMbr(buffer, elem.mbr);
+            buffer.putInt(elem.signature.size()).flip();
+            crc.update(buffer);
+            for (int i = 0, n = elem.signature.size(); i < n; i++) {
+                buffer.clear();
+                buffer.putInt(elem.signature.getDimension(i)).putDouble(elem.signature.getWeight(i)).flip();
+                crc.update(buffer);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void putMbr(ByteBuffer buffer, Rectangle mbr) {
+        buffer.putFloat(mbr.getCoord_BottomLeft(0)).putFloat(mbr.getCoord_BottomLeft(1))
+                .putFloat(mbr.getCoord_TopRight(0)).putFloat(mbr.getCoord_TopRight(1));
+    }
+
+    /**
+     * @return null if the file doesn't exist or it is stale (i.e., built from different elements or with different parameters)
+     */
+    public static MappedWRTree load(final String treeFile, final long checksum) throws IOException {
+        Path path = Paths.get(treeFile);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != checksum) {
+            return null;
+        }
+        // a file cut short (e.g., by an interrupted write of an older version) doesn't hold the sections of its header
+        if (fileSize(buffer.getInt(16), buffer.getInt(20), buffer.getInt(28), buffer.getInt(32), buffer.getInt(36)) != buffer.capacity()) {
+            return null;
+        }
+        return new MappedWRTree(buffer);
+    }
+
+    /**
+     * the sections are the arrays of the frozen tree (see WRTree.freeze), in the same order
+     */
+    public static void write(final String treeFile, final long checksum, final FrozenWRTree tree) throws IOException {
+        int nodeNum = tree.nodeNum, elementNum = tree.elementNum;
+        byte[][] ids = new byte[elementNum][];
+        long idByteNum = 0;
+        for (int i = 0; i < elementNum; i++) {
+            ids[i] = tree.entityIds[i].getBytes(StandardCharsets.UTF_8);
+            idByteNum += ids[i].length;
+        }
+        long aggDimNum = tree.aggDims.length, sigDimNum = tree.sigDims.length;
+
+        long total = fileSize(nodeNum, elementNum, aggDimNum, sigDimNum, idByteNum);
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Error in MappedWRTree.write: the tree file is larger than 2GB.");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) total).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(checksum).putInt(nodeNum).putInt(elementNum).putInt(tree.rootLev)
+                .putInt((int) aggDimNum).putInt((int) sigDimNum).putInt((int) idByteNum)
+                .putInt(tree.leafCapacity).putInt(tree.branchFactor).putInt(tree.fanoutRatio);
+        buffer.position(HEADER_SIZE);
+
+        // nodes
+        putInts(buffer, tree.nodeLevel);
+        putFloats(buffer, tree.nodeMbr);
+        putInts(buffer, tree.firstChild);
+        putInts(buffer, tree.childNum);
+
+        // aggregators
+        putInts(buffer, tree.aggStart);
+        putInts(buffer, tree.aggDims);
+        putDoubles(buffer, tree.aggWeights);
+
+        // elements
+        putFloats(buffer, tree.elementMbr);
+        putInts(buffer, tree.sigStart);
+        putInts(buffer, tree.sigDims);
+        putDoubles(buffer, tree.sigWeights);
+        int start = 0;
+        for (byte[] id : ids) {
+            buffer.putInt(start);
+            start += id.length;
+        }
+        buffer.putInt(start);
+        pad(buffer);
+        for (byte[] id : ids) {
+            buffer.put(id);
+        }
+        pad(buffer);
+
+        buffer.flip();
+        AtomicFile.write(treeFile, buffer);     // never seen half-written, even by a concurrent run
+    }
+
+    // the size of the file holding the sections of the given sizes, see write
+    private static long fileSize(long nodeNum, long elementNum, long aggDimNum, long sigDimNum, long idByteNum) {
+        long total = HEADER_SIZE;
+        for (long length : new long[]{nodeNum * 4, nodeNum * 16, nodeNum * 4, nodeNum * 4, (nodeNum + 1) * 4, aggDimNum * 4, aggDimNum * 8,
+                elementNum * 16, (elementNum + 1) * 4, sigDimNum * 4, sigDimNum * 8, (elementNum + 1) * 4, idByteNum}) {
+            total += length + (8 - length % 8) % 8;
+        }
+        return total;
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 4);
+        pad(buffer);
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] values) {
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 4);
+        pad(buffer);
+    }
+
+    private static void putDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 8);
+        pad(buffer);
+    }
+
+    private static void pad(ByteBuffer buffer) {
+        buffer.position(align(buffer.position()));
+    }
+
+    public int getNodeNum() {
+        return nodeNum;
+    }
+
+    public int getElementNum() {
+        return elementNum;
+    }
+
+    public int getRootLev() {
+        return rootLev;
+    }
+
+    /* ---------------------------------------- query functions ----------------------------------------- */
+
+    private static class Candidate implements Comparable<Candidate> {
+        final int node;
+        final float upperBound;
+
+        Candidate(int _node, float _upperBound) {
+            node = _node;
+            upperBound = _upperBound;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Float.compare(other.upperBound, this.upperBound);      // descending order, as DescendNode
+        }
+    }
+
+    /**
+     * findKNN of each query, run by the given # of threads (see BatchQuery)
+     * @return the NNqueue of each query, in the order of the queries
+     */
+    public List<Queue<AscendNeighbor>> findKNN(List<SparseVector> querySignatures, int numOfK, int threadNum) {
+        return BatchQuery.run(querySignatures, threadNum, querySignature -> findKNN(querySignature, numOfK));
+    }
+
+    /**
+     * the same as WRTree.findKNN, but the nodes, aggregators and signatures are read from the flat sections
+     */
+    public Queue<AscendNeighbor> findKNN(SparseVector querySignature, int numOfK) {
+
+        if (nodeNum == 0) {
+            throw new IllegalArgumentException("Error in findKNN by MappedWRTree: The tree is empty.");
+        }
+        Rectangle queryMBR = new Rectangle(querySignature);
+        final float lng_min = queryMBR.getCoord_BottomLeft(0), lat_min = queryMBR.getCoord_BottomLeft(1);
+        final float lng_max = queryMBR.getCoord_TopRight(0), lat_max = queryMBR.getCoord_TopRight(1);
+
+        Queue<Candidate> candidates = new PriorityQueue<>();
+        candidates.add(new Candidate(0, -1));   // no need to compute upper bound for root node, just add it
+
+        Queue<AscendNeighbor> NNqueue = new PriorityQueue<>();          // ascending order of similarity
+
+        float minSimilarityOfNN;
+
+        while (!candidates.isEmpty()) {
+
+            minSimilarityOfNN = NNqueue.isEmpty() ? Float.NEGATIVE_INFINITY : NNqueue.peek().similarity;
+
+            Candidate curCandidate = candidates.poll();
+
+            if (curCandidate.upperBound < minSimilarityOfNN && NNqueue.size() >= numOfK)
+                break;
+
+            int curNode = curCandidate.node;
+            nodeAccessNum.increment();
+
+            int from = firstChild.get(curNode), to = from + childNum.get(curNode);
+            if (nodeLevel.get(curNode) == 0) {
+                // scan all elements of this leaf node
+                for (int e = from; e < to; e++) {
+                    if (intersects(elementMbr, e, lng_min, lat_min, lng_max, lat_max)) {
+                        float similarity = (float) dot(querySignature, sigDims, sigWeights, sigStart.get(e), sigStart.get(e + 1));
+                        if (similarity > 0 && (NNqueue.size() < numOfK || similarity >= NNqueue.peek().similarity)) {
+                            RTree.updateNNqueue(NNqueue, numOfK, getEntityId(e), similarity);
+                        }
+                    }
+                }
+            } else {
+                for (int child = from; child < to; child++) {
+                    if (intersects(nodeMbr, child, lng_min, lat_min, lng_max, lat_max)) {
+                        float upperBound = (float) dot(querySignature, aggDims, aggWeights, aggStart.get(child), aggStart.get(child + 1));
+                        if (NNqueue.size() < numOfK || upperBound >= minSimilarityOfNN) {
+                            candidates.add(new Candidate(child, upperBound));
+                        }
+                    }
+                }
+            }
+        }
+
+        return NNqueue;
+    }
+
+    // the same as Rectangle.isIntersection
+    private static boolean intersects(FloatBuffer mbrs, int idx, float lng_min, float lat_min, float lng_max, float lat_max) {
+        int pos = idx * 4;
+        return !(mbrs.get(pos) > lng_max || mbrs.get(pos + 2) < lng_min
+                || mbrs.get(pos + 1) > lat_max || mbrs.get(pos + 3) < lat_min);
+    }
+
+    // the same as SparseVector.dot, merged in the same order, so the sum is exactly the same
+    private static double dot(SparseVector query, IntBuffer dims, DoubleBuffer weights, int from, int to) {
+        double dotProduct = 0;
+        int i = 0, j = from;
+        final int n = query.size();
+        while (i < n && j < to) {
+            int d1 = query.getDimension(i), d2 = dims.get(j);
+            if (d1 < d2) {
+                i++;
+            } else if (d1 > d2) {
+                j++;
+            } else {
+                dotProduct += query.getWeight(i++) * weights.get(j++);
+            }
+        }
+        return dotProduct;
+    }
+
+    public String getEntityId(int element) {
+        int from = idStart.get(element), to = idStart.get(element + 1);
+        byte[] id = new byte[to - from];
+        idBytes.get(from, id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+}
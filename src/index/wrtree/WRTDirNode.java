@@ -4,6 +4,7 @@ import index.rtree.RTDirNode;
 import index.rtree.RTLeafElement;
 import index.rtree.RTNode;
 import index.rtree.Rectangle;
+import signatures.SparseVector;
 
 import java.util.*;
 
@@ -11,7 +12,7 @@ public class WRTDirNode extends RTDirNode {
 
     WRTDirNode(RTNode parent, int level) {
         super(parent, level);
-        this.aggregator = new HashMap<>();
+        setAggregator(SparseVector.EMPTY);
     }
 
     /**
@@ -29,17 +30,45 @@ public class WRTDirNode extends RTDirNode {
         if (this.childNodes.isEmpty()) {      // this is an empty node
             this.mbr = new Rectangle(newChild.mbr);
 
-            this.aggregator = new HashMap<>(newChild.aggregator);
+            setAggregator(newChild.getAggregator());     // immutable, so it can be shared
         }
 	    else {
             this.mbr.enlargeRectangle(newChild.mbr);
-            updateAggregator(newChild.aggregator);
+            updateAggregator(newChild.getAggregator());
         }
 
         this.childNodes.add(newChild);
         newChild.parent = this;
     }
 
+    /**
+     * add the child nodes at once, the same as adding them one by one,
+     * but their aggregators are merged pairwise (see WRTree.mergeAggregators)
+     */
+    void addChildNodes(List<RTNode> newChildren) {
+        if (newChildren.isEmpty()) {
+            return;
+        }
+        if (this.childNodes == null) {
+            this.childNodes = new ArrayList<>();
+        }
+        List<SparseVector> aggregators = new ArrayList<>(newChildren.size() + 1);
+        if (!this.childNodes.isEmpty()) {
+            aggregators.add(getAggregator());
+        }
+        for (RTNode newChild : newChildren) {
+            if (this.childNodes.isEmpty()) {
+                this.mbr = new Rectangle(newChild.mbr);
+            } else {
+                this.mbr.enlargeRectangle(newChild.mbr);
+            }
+            this.childNodes.add(newChild);
+            newChild.parent = this;
+            aggregators.add(newChild.getAggregator());
+        }
+        setAggregator(WRTree.mergeAggregators(aggregators, 0, aggregators.size()));
+    }
+
     /**
      * this internal node would overflow if this child node were to be inserted
      * so need a new brother node to share its child nodes and toInsertNode together
@@ -76,9 +105,41 @@ public class WRTDirNode extends RTDirNode {
         return brotherNode;
     }
 
+    // recompute the MBR from the remaining child nodes, e.g., after a deletion
+    void recomputeMbr() {
+        this.mbr = new Rectangle(childNodes.get(0).mbr);
+        for (int i = 1; i < childNodes.size(); i++) {
+            this.mbr.enlargeRectangle(childNodes.get(i).mbr);
+        }
+    }
+
+    /**
+     * a copy sharing the child nodes and the aggregator, which can be changed without affecting this node
+     * the children are adopted by the copy, otherwise they would keep the older copies alive through their parent pointers
+     */
+    WRTDirNode copy() {
+        WRTDirNode copy = new WRTDirNode(null, this.level);
+        copy.childNodes = new ArrayList<>(this.childNodes);
+        copy.childNodes.forEach(child -> child.parent = copy);
+        copy.mbr = new Rectangle(this.mbr);
+        copy.setAggregator(getAggregator());
+        return copy;
+    }
+
+    void replaceChildNode(int idx, RTNode newChild) {
+        this.childNodes.set(idx, newChild);
+        newChild.parent = this;
+    }
+
+    // the MBR and aggregator of this node already cover the new child, e.g., a half of its split child
+    void addCoveredChildNode(RTNode newChild) {
+        this.childNodes.add(newChild);
+        newChild.parent = this;
+    }
+
     private void resetDirNode() {
         this.childNodes.clear();
-        this.aggregator = new HashMap<>();
+        setAggregator(SparseVector.EMPTY);
         this.mbr = new Rectangle();
     }
 
@@ -88,15 +149,12 @@ public class WRTDirNode extends RTDirNode {
         int bestChildIdx = -1;
         int maxCommonPointNum = Integer.MIN_VALUE;
         Rectangle mbr = toInsertElement.mbr;
-        Set<Integer> intersection;
         for(int i = 0, childNum = getChildNum(); i < childNum; i++){
             RTNode curChild = this.childNodes.get(i);
             if(curChild.mbr.isIntersection(mbr)){            // two MBRs have spatial overlapping
 
-                // here maybe time-consuming, but it is acceptable, cz it's building state
-                intersection = new HashSet<>(toInsertElement.getPointSet());
-                intersection.retainAll(curChild.getPointSet());
-                int commonPointNum = intersection.size();
+                // probe the accumulated aggregator directly, so it needn't be sealed for each insertion
+                int commonPointNum = curChild.countCommon(toInsertElement.signature);
 
                 if(commonPointNum > 0){
                     if(maxCommonPointNum < commonPointNum){
@@ -5,15 +5,16 @@ import index.rtree.RTLeafNode;
 import index.rtree.RTNode;
 import index.rtree.Rectangle;
 
+import signatures.SparseVector;
+
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 public class WRTLeafNode extends RTLeafNode {
 
     protected WRTLeafNode(RTNode parent){
         super(parent);
-        this.aggregator = new HashMap<>();
+        setAggregator(SparseVector.EMPTY);
     }
 
     void addElement(RTLeafElement elem) {
@@ -22,7 +23,7 @@ public class WRTLeafNode extends RTLeafNode {
         }
         if(elements.isEmpty()){        // it is the first element of this leaf node
             this.mbr = new Rectangle(elem.mbr);
-            this.aggregator = new HashMap<>(elem.signature);
+            setAggregator(elem.signature);     // immutable, so it can be shared
         }
         else {      // update its mbr and aggregator
             this.mbr.enlargeRectangle(elem.mbr);
@@ -31,6 +32,33 @@ public class WRTLeafNode extends RTLeafNode {
         elements.add(elem);
     }
 
+    /**
+     * add the elements at once, the same as adding them one by one,
+     * but their signatures are merged pairwise into the aggregator (see WRTree.mergeAggregators)
+     */
+    void addElements(List<RTLeafElement> elems) {
+        if (elems.isEmpty()) {
+            return;
+        }
+        if (elements == null) {
+            elements = new ArrayList<>();
+        }
+        List<SparseVector> signatures = new ArrayList<>(elems.size() + 1);
+        if (!elements.isEmpty()) {
+            signatures.add(getAggregator());
+        }
+        for (RTLeafElement elem : elems) {
+            if (elements.isEmpty()) {
+                this.mbr = new Rectangle(elem.mbr);
+            } else {
+                this.mbr.enlargeRectangle(elem.mbr);
+            }
+            elements.add(elem);
+            signatures.add(elem.signature);
+        }
+        setAggregator(WRTree.mergeAggregators(signatures, 0, signatures.size()));
+    }
+
     WRTLeafNode splitAndShare(RTLeafElement toInsertElement, int minSize) {
         int curElemNum = elements.size();
 
@@ -63,9 +91,26 @@ public class WRTLeafNode extends RTLeafNode {
         return brotherNode;
     }
 
+    // recompute the MBR from the remaining elements, e.g., after a deletion
+    void recomputeMbr() {
+        this.mbr = new Rectangle(elements.get(0).mbr);
+        for (int i = 1; i < elements.size(); i++) {
+            this.mbr.enlargeRectangle(elements.get(i).mbr);
+        }
+    }
+
+    // a copy sharing the elements and the aggregator, which can be changed without affecting this node
+    WRTLeafNode copy() {
+        WRTLeafNode copy = new WRTLeafNode(null);
+        copy.elements = new ArrayList<>(this.elements);
+        copy.mbr = new Rectangle(this.mbr);
+        copy.setAggregator(getAggregator());
+        return copy;
+    }
+
     private void resetLeafNode() {
         this.elements = new ArrayList<>();
-        this.aggregator = new HashMap<>();
+        setAggregator(SparseVector.EMPTY);
         this.mbr = new Rectangle();
     }
 }
\ No newline at end of file
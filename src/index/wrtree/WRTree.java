@@ -3,12 +3,16 @@ package index.wrtree;
 import index.AscendNeighbor;
 import index.Calculate;
 import index.DescendNode;
+import index.HilbertCurve;
 import index.rtree.RTLeafElement;
 import index.rtree.RTNode;
 import index.rtree.RTree;
 import index.rtree.Rectangle;
+import signatures.SparseVector;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class WRTree extends RTree {
 
@@ -103,6 +107,30 @@ public class WRTree extends RTree {
      * --------------------------- 2) STR bulk-loading algorithm ---------------------------------------
      */
 
+    private static final int PARALLEL_THRESHOLD = 1024;          // the slabs of fewer entries are built serially
+    private static final int PARALLEL_MERGE_THRESHOLD = 1 << 14;  // the aggregators of fewer dimensions are merged serially
+
+    private ForkJoinPool pool = null;   // only during a parallel build
+
+    /**
+     * the slabs are built in parallel by the fork-join pool of the given # of threads (0 for all available cores),
+     * and the resulting tree is exactly the same as the serial one
+     */
+    public void constructRTree_STR(List<RTLeafElement> elementList, int threadNum) {
+        final int threads = threadNum > 0 ? threadNum : Runtime.getRuntime().availableProcessors();
+        if (threads <= 1) {
+            constructRTree_STR(elementList);
+            return;
+        }
+        pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> constructRTree_STR(elementList)).join();
+        } finally {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
     public void constructRTree_STR(List<RTLeafElement> elementList) {
 
         this.entityNum = elementList.size();
@@ -171,9 +199,7 @@ public class WRTree extends RTree {
         if (_nodeNum <= branchFactor) {
             // There is only one node
             WRTDirNode curNode = new WRTDirNode(null, nextLevel);
-            for (int i = 0; i < _nodeNum; i++) {
-                curNode.addChildNode(_curNodeList.get(_fromIdx + i));
-            }
+            curNode.addChildNodes(_curNodeList.subList(_fromIdx, _fromIdx + _nodeNum));
             nextNodeList.add(curNode);
             return 0;
         }
@@ -193,10 +219,8 @@ public class WRTree extends RTree {
             // We construct the first (nextNodeNum - 2) nodes, because we may need to deal with the last two nodes specially.
             for (int i = 0; i < nextNodeNum - 2; ++i) {
                 curNode = new WRTDirNode(null, nextLevel);
-                for (int j = 0; j < tempNum; ++j) {
-                    curNode.addChildNode(_curNodeList.get(curIndex));
-                    curIndex++;
-                }
+                curNode.addChildNodes(_curNodeList.subList(curIndex, curIndex + tempNum));
+                curIndex += tempNum;
                 nextNodeList.add(curNode);
             }
 
@@ -204,19 +228,15 @@ public class WRTree extends RTree {
             tempNum = (_fromIdx + _nodeNum - curIndex) / 2;
             curNode = new WRTDirNode(null, nextLevel);
 
-            for (int j = 0; j < tempNum; ++j) {
-                curNode.addChildNode(_curNodeList.get(curIndex));
-                curIndex++;
-            }
+            curNode.addChildNodes(_curNodeList.subList(curIndex, curIndex + tempNum));
+            curIndex += tempNum;
             nextNodeList.add(curNode);
 
             // the last one
             tempNum = _fromIdx + _nodeNum - curIndex;   // the remaining nodes
             curNode = new WRTDirNode(null, nextLevel);
-            for (int j = 0; j < tempNum; ++j) {
-                curNode.addChildNode(_curNodeList.get(curIndex));
-                curIndex++;
-            }
+            curNode.addChildNodes(_curNodeList.subList(curIndex, curIndex + tempNum));
+            curIndex += tempNum;
             nextNodeList.add(curNode);
 
             // Code for debug
@@ -232,35 +252,25 @@ public class WRTree extends RTree {
             // Note that: There must be at least two slabs because _branchFactor < _nodeNum.
             sortRTNodes(_curNodeList, _fromIdx, _nodeNum, _targetDim);
 
-            int rtn = 0;
+            int[] slabFrom = new int[slabNum], slabSizes = new int[slabNum];
             int curFromIdx = _fromIdx;
             for (int i = 0; i < slabNum - 2; ++i) {
-                rtn = constructNextLevel_STR_SubRoutine(_curNodeList, curFromIdx, slabSize, _curLevel, _targetDim + 1, nextNodeList);
-                if (rtn == 1) {
-                    System.out.println("Error in WRtree.constructNextLevel_STR_SubRoutine: Something must be wrong in recursion!");
-                    return 1;
-                }
+                slabFrom[i] = curFromIdx;
+                slabSizes[i] = slabSize;
                 curFromIdx += slabSize;
             }
 
 
             /** Process the last two slabs specially. */
             slabSize = (_nodeNum - curFromIdx) / 2;            // equal slabSize for the last two slabs, may different with above
-
-            rtn = constructNextLevel_STR_SubRoutine(_curNodeList, curFromIdx, slabSize, _curLevel, _targetDim + 1, nextNodeList);
-            if (rtn == 1) {
-                System.out.println("Error in WRtree.constructNextLevel_STR_SubRoutine: Something must be wrong in recursion!");
-                return 1;
-            }
+            slabFrom[slabNum - 2] = curFromIdx;
+            slabSizes[slabNum - 2] = slabSize;
 
             /** The last one slab */
             curFromIdx += slabSize;
             slabSize = _nodeNum - curFromIdx;       // Put all the rest points to the last slab.
-            rtn = constructNextLevel_STR_SubRoutine(_curNodeList, curFromIdx, slabSize, _curLevel, _targetDim + 1, nextNodeList);
-            if (rtn == 1) {
-                System.out.println("Error in WRtree.constructNextLevel_STR_SubRoutine: Something must be wrong in recursion!");
-                return 1;
-            }
+            slabFrom[slabNum - 1] = curFromIdx;
+            slabSizes[slabNum - 1] = slabSize;
 
             // Code for debug
             if ((curFromIdx + slabSize) != (_fromIdx + _nodeNum)) {
@@ -268,6 +278,13 @@ public class WRTree extends RTree {
                 return 1;
             }
 
+            int rtn = constructSlabs(slabFrom, slabSizes, _nodeNum, nextNodeList, (fromIdx, num, nodeList) ->
+                    constructNextLevel_STR_SubRoutine(_curNodeList, fromIdx, num, _curLevel, _targetDim + 1, nodeList));
+            if (rtn == 1) {
+                System.out.println("Error in WRtree.constructNextLevel_STR_SubRoutine: Something must be wrong in recursion!");
+                return 1;
+            }
+
             return 0;
         }
     }
@@ -303,9 +320,7 @@ public class WRTree extends RTree {
         if (_elemNum <= leafCapacity) {
             // there is only one leaf node
             WRTLeafNode curNode = new WRTLeafNode(null);      // level of leaf node = 0
-            for (int i = 0; i < _elemNum; i++) {
-                curNode.addElement(_elementList.get(i + _fromIdx));
-            }
+            curNode.addElements(_elementList.subList(_fromIdx, _fromIdx + _elemNum));
             leafNodeList.add(curNode);
             return 0;
         }
@@ -324,28 +339,22 @@ public class WRTree extends RTree {
             // We construct the first (leafNodeNum - 2) nodes because we may need to deal with the last two nodes specially.
             for (int i = 0; i < leafNodeNum - 2; ++i) {
                 curNode = new WRTLeafNode(null);
-                for (int j = 0; j < tempNum; ++j) {
-                    curNode.addElement(_elementList.get(curIndex));
-                    curIndex++;
-                }
+                curNode.addElements(_elementList.subList(curIndex, curIndex + tempNum));
+                curIndex += tempNum;
                 leafNodeList.add(curNode);
             }
 
             // We deal with the last two nodes specially.
             tempNum = (_fromIdx + _elemNum - curIndex) / 2;
             curNode = new WRTLeafNode(null);
-            for (int j = 0; j < tempNum; ++j) {
-                curNode.addElement(_elementList.get(curIndex));
-                curIndex++;
-            }
+            curNode.addElements(_elementList.subList(curIndex, curIndex + tempNum));
+            curIndex += tempNum;
             leafNodeList.add(curNode);
 
             tempNum = _fromIdx + _elemNum - curIndex;
             curNode = new WRTLeafNode(null);
-            for (int j = 0; j < tempNum; ++j) {
-                curNode.addElement(_elementList.get(curIndex));
-                curIndex++;
-            }
+            curNode.addElements(_elementList.subList(curIndex, curIndex + tempNum));
+            curIndex += tempNum;
             leafNodeList.add(curNode);
 
             // Code for debug
@@ -362,56 +371,416 @@ public class WRTree extends RTree {
             // Sort all the points by the _dimLev-dim coordinates.
             sortRTLeafElements(_elementList, _fromIdx, _elemNum, _targetDim);
 
-            int rtn = 0;
+            int[] slabFrom = new int[slabNum], slabSizes = new int[slabNum];
             int curFromIdx = _fromIdx;
             for (int i = 0; i < slabNum - 2; ++i) {
-                rtn = constructLeafLevel_STR_SubRoutine(_elementList, curFromIdx, slabSize, _targetDim + 1, leafNodeList);
-                if (rtn == 1) {
-                    System.out.println("Error in WRtree.constructLeafLevel_STR_SubRoutine: Something must be wrong in recursion!");
-                    return 1;
-                }
+                slabFrom[i] = curFromIdx;
+                slabSizes[i] = slabSize;
                 curFromIdx += slabSize;
             }
 
 
             /* Process the last two slabs specially. */
             slabSize = (_elemNum - curFromIdx) / 2;            // equal slabSize for the last two slabs, may different with above
-
-            rtn = constructLeafLevel_STR_SubRoutine(_elementList, curFromIdx, slabSize, _targetDim + 1, leafNodeList);
-            if (rtn == 1) {
-                System.out.println("Error in WRtree.constructLeafLevel_STR_SubRoutine: Something must be wrong in recursion!");
-                return 1;
-            }
+            slabFrom[slabNum - 2] = curFromIdx;
+            slabSizes[slabNum - 2] = slabSize;
 
             /* The last one slab */
             curFromIdx += slabSize;
             slabSize = _elemNum - curFromIdx;       // Put all the rest points to the last slab.
-            rtn = constructLeafLevel_STR_SubRoutine(_elementList, curFromIdx, slabSize, _targetDim + 1, leafNodeList);
-            if (rtn == 1) {
-                System.out.println("Error in WRtree.constructLeafLevel_STR_SubRoutine: Something must be wrong in recursion!\n");
-                return 1;
-            }
+            slabFrom[slabNum - 1] = curFromIdx;
+            slabSizes[slabNum - 1] = slabSize;
 
             // Code for debug
             if ((curFromIdx + slabSize) != (_fromIdx + _elemNum)) {
                 System.out.println("//debug in WRTree.constructLeafLevel_STR_SubRoutine: when slabbing, the index of last node is wrong...");
                 return 1;
             }
+
+            int rtn = constructSlabs(slabFrom, slabSizes, _elemNum, leafNodeList, (fromIdx, num, nodeList) ->
+                    constructLeafLevel_STR_SubRoutine(_elementList, fromIdx, num, _targetDim + 1, nodeList));
+            if (rtn == 1) {
+                System.out.println("Error in WRtree.constructLeafLevel_STR_SubRoutine: Something must be wrong in recursion!");
+                return 1;
+            }
             return 0;
         }
     }
 
+    private interface SlabConstructor {
+        int construct(int fromIdx, int num, Vector<RTNode> nodeList);
+    }
+
+    /**
+     * construct the slabs one by one, or in parallel during a parallel build,
+     * where each slab has its own node list and they are appended in the order of slabs,
+     * so the nodes are in the same order either way
+     *
+     * @param totalNum  # of entries in all slabs
+     * @return 1 if the construction of any slab failed
+     */
+    private int constructSlabs(int[] slabFrom, int[] slabSizes, int totalNum, Vector<RTNode> nodeList, SlabConstructor constructor) {
+        if (pool == null || totalNum < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < slabFrom.length; i++) {
+                if (constructor.construct(slabFrom[i], slabSizes[i], nodeList) == 1) {
+                    return 1;
+                }
+            }
+            return 0;
+        }
+
+        List<Vector<RTNode>> slabNodeLists = new ArrayList<>();
+        List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < slabFrom.length; i++) {
+            final int fromIdx = slabFrom[i], num = slabSizes[i];
+            final Vector<RTNode> slabNodeList = new Vector<>();
+            slabNodeLists.add(slabNodeList);
+            tasks.add(ForkJoinTask.adapt(() -> constructor.construct(fromIdx, num, slabNodeList)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        for (int i = 0; i < tasks.size(); i++) {
+            if (tasks.get(i).join() == 1) {
+                return 1;
+            }
+            nodeList.addAll(slabNodeLists.get(i));
+        }
+        return 0;
+    }
+
+    /**
+     * the aggregator of vectors[from, to), i.e., their element-wise maximum,
+     * merged pairwise in halves rather than one by one, so each dimension is copied O(log n) times instead of O(n),
+     * and the two halves of large ones are merged in parallel during a parallel build
+     */
+    static SparseVector mergeAggregators(List<SparseVector> vectors, int from, int to) {
+        if (to - from == 1) {
+            return vectors.get(from);
+        }
+        int mid = (from + to) >>> 1;
+        if (ForkJoinTask.inForkJoinPool()) {
+            long dimNum = 0;
+            for (int i = from; i < to; i++) {
+                dimNum += vectors.get(i).size();
+            }
+            if (dimNum >= PARALLEL_MERGE_THRESHOLD) {
+                ForkJoinTask<SparseVector> left = ForkJoinTask.adapt(() -> mergeAggregators(vectors, from, mid)).fork();
+                SparseVector right = mergeAggregators(vectors, mid, to);
+                return SparseVector.max(left.join(), right);
+            }
+        }
+        return SparseVector.max(mergeAggregators(vectors, from, mid), mergeAggregators(vectors, mid, to));
+    }
+
+
+
+    /**
+     * --------------------------- 3) Hilbert bulk-loading algorithm -----------------------------------
+     * the elements are sorted only once by the Hilbert value of their MBR centers,
+     * then the leaf nodes and the internal nodes are packed bottom-up in this order,
+     * and the MBRs and aggregators of nodes are built while their children are added
+     * the nodes are filled as STR does, i.e., half of leafCapacity for leaf nodes and branchFactor for internal nodes
+     */
+
+    private static final int HILBERT_ORDER = 16;    // the Hilbert curve over 2^16 * 2^16 cells
+
+    public void constructRTree_Hilbert(List<RTLeafElement> elementList) {
+
+        this.entityNum = elementList.size();
+        if (entityNum == 0) {
+            System.out.println("Warning in WRTree.constructRTree_Hilbert: The given element list is empty!");
+            return;
+        }
+
+        // the range of the center points
+        float[] lngs = new float[entityNum], lats = new float[entityNum];
+        double lng_min = Double.POSITIVE_INFINITY, lng_max = Double.NEGATIVE_INFINITY;
+        double lat_min = Double.POSITIVE_INFINITY, lat_max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < entityNum; i++) {
+            Rectangle mbr = elementList.get(i).mbr;
+            lngs[i] = (mbr.getCoord_BottomLeft(0) + mbr.getCoord_TopRight(0)) / 2;
+            lats[i] = (mbr.getCoord_BottomLeft(1) + mbr.getCoord_TopRight(1)) / 2;
+            lng_min = Math.min(lng_min, lngs[i]);
+            lng_max = Math.max(lng_max, lngs[i]);
+            lat_min = Math.min(lat_min, lats[i]);
+            lat_max = Math.max(lat_max, lats[i]);
+        }
+
+        // sort once, the ties keep the given order
+        long[] keys = new long[entityNum];
+        Integer[] order = new Integer[entityNum];
+        for (int i = 0; i < entityNum; i++) {
+            keys[i] = HilbertCurve.encode(HILBERT_ORDER, lngs[i], lats[i], lng_min, lng_max, lat_min, lat_max);
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> Long.compare(keys[i1], keys[i2]));
+
+        // leaf level
+        List<RTNode> curNodeList = new ArrayList<>();
+        int[] bounds = packBounds(entityNum, leafCapacity, (int) Math.ceil(leafCapacity / 2.0));
+        for (int n = 0; n + 1 < bounds.length; n++) {
+            WRTLeafNode leafNode = new WRTLeafNode(null);
+            List<RTLeafElement> elements = new ArrayList<>(bounds[n + 1] - bounds[n]);
+            for (int i = bounds[n]; i < bounds[n + 1]; i++) {
+                elements.add(elementList.get(order[i]));
+            }
+            leafNode.addElements(elements);
+            curNodeList.add(leafNode);
+        }
+
+        // then the internal nodes in a bottom-up manner
+        int level = 0;
+        while (curNodeList.size() > 1) {
+            List<RTNode> nextNodeList = new ArrayList<>();
+            bounds = packBounds(curNodeList.size(), branchFactor, branchFactor);
+            for (int n = 0; n + 1 < bounds.length; n++) {
+                WRTDirNode dirNode = new WRTDirNode(null, level + 1);
+                dirNode.addChildNodes(curNodeList.subList(bounds[n], bounds[n + 1]));
+                nextNodeList.add(dirNode);
+            }
+            curNodeList = nextNodeList;
+            level++;
+        }
+
+        root = curNodeList.get(0);
+        rootLev = level;
+    }
+
+    /**
+     * the same packing as STR: all in one node if they fit the capacity,
+     * otherwise nodes of the given size, where the last two nodes share the rest equally
+     *
+     * @return the i-th node holds the children in [bounds[i], bounds[i+1])
+     */
+    private static int[] packBounds(int childNum, int capacity, int size) {
+        if (childNum <= capacity) {
+            return new int[]{0, childNum};
+        }
+        int nodeNum = (int) Math.ceil(childNum * 1.0 / size);
+        int[] bounds = new int[nodeNum + 1];
+        for (int i = 1; i <= nodeNum - 2; i++) {
+            bounds[i] = bounds[i - 1] + size;
+        }
+        bounds[nodeNum - 1] = bounds[nodeNum - 2] + (childNum - bounds[nodeNum - 2]) / 2;
+        bounds[nodeNum] = childNum;
+        return bounds;
+    }
+
+
+
+    /**
+     * --------------------------- 4) deletion and update ----------------------------------------------
+     * the leaf holding the element is found by its MBR, aggregators and entity id,
+     * then the nodes on the path are condensed bottom-up: an underflow node is removed and its elements are reinserted,
+     * and the MBRs and aggregators of the others shrink, where only the dimensions of the removed signatures are recomputed
+     */
+
+    /**
+     * @param element   the indexed element, or one with the same entity id, MBR and signature
+     * @return false if it isn't in this tree
+     */
+    public boolean deleteElement(RTLeafElement element) {
+        if (element == null) {
+            throw new IllegalArgumentException("Error in WRTree.deleteElement: Null to be deleted.");
+        }
+        if (root == null) {
+            return false;
+        }
+        WRTLeafNode leaf = findLeaf(root, element);
+        if (leaf == null) {
+            return false;
+        }
+        leaf.getChildren().removeIf(elem -> elem.entityID.equals(element.entityID));
+        this.entityNum--;
+        condenseTree(leaf, element);
+        return true;
+    }
+
+    /**
+     * replace the indexed element of an entity by a new one, e.g., with a longer history
+     *
+     * @return false if the old element isn't in this tree, then the new one isn't inserted either
+     */
+    public boolean updateElement(RTLeafElement oldElement, RTLeafElement newElement) {
+        if (newElement == null) {
+            throw new IllegalArgumentException("Error in WRTree.updateElement: Null to be inserted.");
+        }
+        if (!deleteElement(oldElement)) {
+            return false;
+        }
+        insertElement(newElement);
+        rootLev = root.level;
+        return true;
+    }
+
+    // the leaf node holding the element, only the subtrees whose MBRs and aggregators cover the element are visited
+    private WRTLeafNode findLeaf(RTNode node, RTLeafElement element) {
+        if (node.isLeaf()) {
+            for (RTLeafElement elem : ((WRTLeafNode) node).getChildren()) {
+                if (elem.entityID.equals(element.entityID)) {
+                    return (WRTLeafNode) node;
+                }
+            }
+            return null;
+        }
+        for (RTNode child : ((WRTDirNode) node).getChildren()) {
+            if (child.mbr.canEnclose(element.mbr) && covers(child, element.signature)) {
+                WRTLeafNode leaf = findLeaf(child, element);
+                if (leaf != null) {
+                    return leaf;
+                }
+            }
+        }
+        return null;
+    }
+
+    // the aggregator of a node holding the signature can't be less than it in any dimension
+    static boolean covers(RTNode node, SparseVector signature) {
+        for (int r = 0, n = signature.size(); r < n; r++) {
+            int i = signature.getRank(r);       // the heaviest dimensions first, which are the most selective
+            if (node.getAggregatedWeight(signature.getDimension(i)) < signature.getWeight(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void condenseTree(WRTLeafNode leaf, RTLeafElement deleted) {
+        int minLeafSize = (int) Math.max(leafCapacity * 1.0 / fanoutRatio, 2);
+        int minDirSize = (int) Math.max(branchFactor * 1.0 / fanoutRatio, 2);
+
+        // what has been removed below the current node, i.e., the deleted element and the removed nodes
+        List<Rectangle> removedMbrs = new ArrayList<>();
+        List<SparseVector> removedVectors = new ArrayList<>();
+        removedMbrs.add(deleted.mbr);
+        removedVectors.add(deleted.signature);
+
+        List<RTNode> eliminated = new ArrayList<>();
+        RTNode node = leaf;
+        boolean lostChild = true;       // whether the current node has lost a child (element)
+        while (!node.isRoot()) {
+            WRTDirNode parent = (WRTDirNode) node.parent;
+            boolean underflow = lostChild && node.getChildNum() < (node.isLeaf() ? minLeafSize : minDirSize);
+            if (underflow) {
+                parent.getChildren().remove(node);
+                eliminated.add(node);
+                removedMbrs.add(node.mbr);
+                removedVectors.add(node.getAggregator());
+            } else {
+                shrinkBounds(node, removedMbrs, removedVectors);
+            }
+            lostChild = underflow;
+            node = parent;
+        }
+        if (root.getChildNum() > 0) {
+            shrinkBounds(root, removedMbrs, removedVectors);
+        }
+
+        // shorten the tree if the root has only one child
+        while (!root.isLeaf() && root.getChildNum() == 1) {
+            root = ((WRTDirNode) root).getChildByID(0);
+            root.parent = null;
+        }
+        if (root.getChildNum() == 0) {
+            root = null;
+        }
+
+        // reinsert the elements of the removed nodes
+        List<RTLeafElement> orphans = new ArrayList<>();
+        for (RTNode removed : eliminated) {
+            collectElements(removed, orphans);
+        }
+        this.entityNum -= orphans.size();
+        orphans.forEach(this::insertElement);
+        rootLev = root == null ? 0 : root.level;
+    }
+
+    /**
+     * after some children are removed, the MBR is recomputed if any removed one touches its boundary,
+     * and the dimensions of the aggregator where a removed vector gives the max weight are recomputed from the remaining children
+     */
+    private static void shrinkBounds(RTNode node, List<Rectangle> removedMbrs, List<SparseVector> removedVectors) {
+        for (Rectangle removed : removedMbrs) {
+            if (onBoundary(node.mbr, removed)) {
+                if (node.isLeaf()) {
+                    ((WRTLeafNode) node).recomputeMbr();
+                } else {
+                    ((WRTDirNode) node).recomputeMbr();
+                }
+                break;
+            }
+        }
+        for (SparseVector removed : removedVectors) {
+            for (int i = 0, n = removed.size(); i < n; i++) {
+                int dim = removed.getDimension(i);
+                if (removed.getWeight(i) < node.getAggregatedWeight(dim)) {
+                    continue;   // it isn't the max weight of this dimension
+                }
+                boolean found = false;
+                double maxWeight = Double.NEGATIVE_INFINITY;
+                if (node.isLeaf()) {
+                    for (RTLeafElement elem : ((WRTLeafNode) node).getChildren()) {
+                        if (elem.signature.contains(dim)) {
+                            found = true;
+                            maxWeight = Math.max(maxWeight, elem.signature.get(dim));
+                        }
+                    }
+                } else {
+                    for (RTNode child : ((WRTDirNode) node).getChildren()) {
+                        if (child.hasAggregatedDimension(dim)) {
+                            found = true;
+                            maxWeight = Math.max(maxWeight, child.getAggregatedWeight(dim));
+                        }
+                    }
+                }
+                if (found) {
+                    node.setAggregatedWeight(dim, maxWeight);
+                } else {
+                    node.removeAggregatedDimension(dim);
+                }
+            }
+        }
+    }
+
+    private static boolean onBoundary(Rectangle mbr, Rectangle removed) {
+        for (int i = 0; i < dimension; i++) {
+            if (removed.getCoord_BottomLeft(i) <= mbr.getCoord_BottomLeft(i)
+                    || removed.getCoord_TopRight(i) >= mbr.getCoord_TopRight(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void collectElements(RTNode node, List<RTLeafElement> elements) {
+        if (node.isLeaf()) {
+            elements.addAll(((WRTLeafNode) node).getChildren());
+        } else {
+            for (RTNode child : ((WRTDirNode) node).getChildren()) {
+                collectElements(child, elements);
+            }
+        }
+    }
+
+
+
+    /**
+     * compile this tree into primitive arrays for the queries, it is a read-only copy, so later changes aren't reflected
+     */
+    public FrozenWRTree freeze() {
+        return new FrozenWRTree(this);
+    }
+
 
 
     /* ---------------------------------------- query functions ----------------------------------------- */
 
     @Override
-    public Queue<AscendNeighbor> findKNN(Map<Integer, Double> querySignature, int numOfK) {
+    public Queue<AscendNeighbor> findKNN(SparseVector querySignature, int numOfK) {
 
         if (this.root == null) {
             throw new IllegalArgumentException("Error in findKNN by WRtree: The root is NULL.");
         }
-        Rectangle queryMBR = new Rectangle(querySignature.keySet());
+        Rectangle queryMBR = new Rectangle(querySignature);
 
         // any candidate node added to this queue must have spatial overlapping with this query
         Queue<DescendNode> candidates = new PriorityQueue<>();
@@ -432,6 +801,7 @@ public class WRTree extends RTree {
 
             // start to check current candidate
             RTNode curNode = curCandidate.node;
+            nodeAccessNum.increment();
 
             if (curNode.isLeaf()) {
 
@@ -450,7 +820,7 @@ public class WRTree extends RTree {
                     // only if they have spatial overlap and common points, the upperbound computation may happen
                     if (queryMBR.isIntersection(child.mbr)) {
 
-                        float upperBound = Calculate.upperBound(querySignature, child.aggregator);
+                        float upperBound = Calculate.upperBound(querySignature, child.getAggregator());
 
                         // haven't found enough NN, or the upperbound is greater than current min similarity of NNs
                         // then add this node into candidate queue
@@ -465,5 +835,51 @@ public class WRTree extends RTree {
         return NNqueue;
     }
 
+    /**
+     * all entities whose similarity to the query is at least tau, in descending order of similarity
+     * the nodes are pruned by the same MBR and upper bound tests as findKNN, but against the fixed threshold,
+     * so nothing has to be kept around for a bound that only tightens later
+     */
+    @Override
+    public List<AscendNeighbor> findWithinSimilarity(SparseVector querySignature, float tau) {
+
+        if (this.root == null) {
+            throw new IllegalArgumentException("Error in findWithinSimilarity by WRtree: The root is NULL.");
+        }
+        Rectangle queryMBR = new Rectangle(querySignature);
+        List<AscendNeighbor> neighbors = new ArrayList<>();
+
+        Deque<RTNode> stack = new ArrayDeque<>();
+        stack.push(this.root);
+        while (!stack.isEmpty()) {
+            RTNode curNode = stack.pop();
+            nodeAccessNum.increment();
+
+            if (curNode.isLeaf()) {
+                for (RTLeafElement elem : ((WRTLeafNode) curNode).getChildren()) {
+                    if (queryMBR.isIntersection(elem.mbr)) {
+                        float similarity = Calculate.cosineSimilarity(querySignature, elem.signature);
+                        if (similarity > 0 && similarity >= tau) {
+                            neighbors.add(new AscendNeighbor(elem.entityID, similarity));
+                        }
+                    }
+                }
+            } else {
+                // pushed backwards, so the children are visited in order
+                WRTDirNode curDirNode = (WRTDirNode) curNode;
+                for (int i = curDirNode.getChildNum() - 1; i >= 0; i--) {
+                    RTNode child = curDirNode.getChildByID(i);
+                    if (queryMBR.isIntersection(child.mbr)
+                            && Calculate.upperBound(querySignature, child.getAggregator()) >= tau) {
+                        stack.push(child);
+                    }
+                }
+            }
+        }
+
+        neighbors.sort(Collections.reverseOrder());     // stable, the ties keep the order of visiting
+        return neighbors;
+    }
+
 
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file written through a temporary file in the same directory, which replaces the target at once when committed,
+ * so the readers (e.g., the next run) see either the old file or the complete new one, never a partial write
+ *
+ * the temporary file is deleted if it is closed without being committed, e.g., after an exception
+ */
+public class AtomicFile implements Closeable {
+
+    private final Path target, temp;
+    private final FileChannel channel;
+    private boolean committed = false;
+
+    public AtomicFile(final String file) throws IOException {
+        target = Paths.get(file).toAbsolutePath();
+        // unique to this run and this moment, created with the default permissions as the target would be
+        temp = target.resolveSibling(target.getFileName() + "." + ProcessHandle.current().pid() + "." + System.nanoTime() + ".tmp");
+        channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    // force the content to disk, then replace the target by it
+    public void commit() throws IOException {
+        channel.force(true);
+        channel.close();
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            channel.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // write the whole buffer (from its position to its limit) as the new content of the file
+    public static void write(final String file, final ByteBuffer buffer) throws IOException {
+        try (AtomicFile atomicFile = new AtomicFile(file)) {
+            while (buffer.hasRemaining()) {
+                atomicFile.channel.write(buffer);
+            }
+            atomicFile.commit();
+        }
+    }
+}
@@ -4,57 +4,250 @@ import main.Main;
 import basic.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.sql.Timestamp;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
 
 public class FileIO {
 
+    private static final int MIN_TRAJ_LEN = 500;     // the objects with fewer points are discarded
+    private static final int MAX_FILE_ID = 10357;    // the raw files are 1.txt, 2.txt, ..., 10356.txt
+
     // read the data from file, meanwhile, split the data by odd/even dates
     public static double readRawDataset(final String folderName, final int totalObject,
                                         Vector<Trajectory> oddData, Vector<Trajectory> evenData) throws IOException {
+        return readRawDataset(folderName, totalObject, 1, oddData, evenData);
+    }
+
+    /**
+     * parallel version: the files are parsed concurrently by a bounded pool of threads,
+     * while the parsed objects are consumed strictly in the file order,
+     * so the selected objects, their order and the average length are the same as the serial reading
+     *
+     * @param threadNum  # of threads used for parsing; 1 means serial, 0 means all available cores
+     */
+    public static double readRawDataset(final String folderName, final int totalObject, final int threadNum,
+                                        Vector<Trajectory> oddData, Vector<Trajectory> evenData) throws IOException {
         File folder = new File(folderName);
         if (!folder.exists()) {
             throw new FileNotFoundException();
         }
-        final int idPos = 0, timePos = 1, lngPos = 2, latPos = 3;   // revised if using a different dataset
-        final int minTrajLen = 500;
+        final int[] n = {0};
+        final double[] avgLength = {0};
+        forEachRawFile(folderName, threadNum, false, object -> {
+            avgLength[0] += object.totalPoint >= MIN_TRAJ_LEN ? object.totalPoint : 0;
+            return !accept(object, oddData, evenData) || ++n[0] != totalObject;
+        });
+        return avgLength[0] / totalObject;
+    }
+
+    /**
+     * one-time conversion from the raw text files to a binary columnar file,
+     * which can be loaded by readBinaryDataset much faster than parsing the text files again
+     * the missing files are skipped
+     */
+    public static void convertRawDataset(final String folderName, final String outputFile, final int threadNum) throws IOException {
+        File folder = new File(folderName);
+        if (!folder.exists()) {
+            throw new FileNotFoundException();
+        }
+        // taken before reading, so a raw file changed during the conversion makes the binary file stale
+        final long fingerprint = fingerprint(folderName);
+        try (TrajectoryStore.Writer writer = new TrajectoryStore.Writer(outputFile, fingerprint)) {
+            forEachRawFile(folderName, threadNum, true, object -> {
+                writer.writeObject(object.id, object.oddPoints.build(object.id, object.id),
+                        object.evenPoints.build(object.id, object.id));
+                return true;
+            });
+            writer.finish();
+        }
+    }
+
+    /**
+     * the fingerprint of the raw files, to detect a stale binary file:
+     * the CRC of the absolute path of the folder, and the name, size and last modified time of each raw file in it
+     */
+    public static long fingerprint(final String folderName) throws IOException {
+        CRC32C crc = new CRC32C();
+        Path folder = Paths.get(folderName).toAbsolutePath().normalize();
+        crc.update(folder.toString().getBytes(StandardCharsets.UTF_8));
+        // the folder is listed once, rather than probing each name
+        Map<String, Path> files = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*.txt")) {
+            stream.forEach(file -> files.put(file.getFileName().toString(), file));
+        }
+        ByteBuffer entry = ByteBuffer.allocate(4 + 8 + 8);
+        for (int i = 1; i < MAX_FILE_ID; i++) {
+            Path file = files.get(i + ".txt");
+            if (file == null) {
+                continue;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            entry.clear();
+            entry.putInt(i).putLong(attributes.size()).putLong(attributes.lastModifiedTime().toMillis());
+            crc.update(entry.array());
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * the same as below, but the binary file is (re-)converted from the raw files first
+     * if it doesn't exist, it is incomplete (e.g., left by an interrupted run of an older version),
+     * or it is stale (i.e., the raw files are from another folder, added or replaced since the conversion)
+     */
+    public static double readBinaryDataset(final String inputFile, final String folderName, final int threadNum,
+                                           final int totalObject, Vector<Trajectory> oddData, Vector<Trajectory> evenData) throws IOException {
+        if (TrajectoryStore.load(inputFile, fingerprint(folderName)) == null) {     // the conversion is only needed once for the same raw files
+            System.out.println("\t Converting raw data to " + inputFile);
+            convertRawDataset(folderName, inputFile, threadNum);
+        }
+        return readBinaryDataset(inputFile, totalObject, oddData, evenData);
+    }
+
+    /**
+     * the same as readRawDataset, but the trajectories are views over the memory-mapped binary file
+     * written by convertRawDataset
+     */
+    public static double readBinaryDataset(final String inputFile, final int totalObject,
+                                           Vector<Trajectory> oddData, Vector<Trajectory> evenData) throws IOException {
+        TrajectoryStore store = TrajectoryStore.load(inputFile);
+        if (store == null) {
+            throw new IOException("Error in FileIO.readBinaryDataset: " + inputFile + " is missing or incomplete.");
+        }
         int n = 0;
         double avgLength = 0;
-        for (int i = 1; i < 10357; i++) {
-            String filename = folderName + i + ".txt";
-            final BufferedReader br = new BufferedReader(new FileReader(filename));
-            String line = "", id = "0";
-            int totalPoint = 0;
-            List<ComplexPoint> oddPoints = new ArrayList<>(), evenPoints = new ArrayList<>();
-            while ((line = br.readLine()) != null) {
-                String[] tokens = line.split(",");
-                id = tokens[idPos];
-                Timestamp t = Timestamp.valueOf(tokens[timePos]);
-                int day = t.toLocalDateTime().getDayOfMonth();
-                float lng = Float.parseFloat(tokens[lngPos]), lat = Float.parseFloat(tokens[latPos]);
-                long second = t.getTime() / 1000;
-                ComplexPoint point = new ComplexPoint(lng, lat, second);
-                if (day % 2 == 0) {  // split dataset by the date of odd or even
-                    evenPoints.add(point);
+        for (int i = 0; i < store.getObjectNum(); i++) {
+            int totalPoint = store.getPointNum(i);
+            if (totalPoint < MIN_TRAJ_LEN) {
+                continue;
+            }
+            avgLength += totalPoint;
+            if (store.getOddPointNum(i) > 0 && store.getEvenPointNum(i) > 0) {
+                oddData.add(store.getOddTrajectory(i));
+                evenData.add(store.getEvenTrajectory(i));
+                if (++n == totalObject) {
+                    break;
                 }
-                else {
-                    oddPoints.add(point);
+            }
+        }
+        return avgLength / totalObject;
+    }
+
+    private interface RawObjectConsumer {
+        // return false to stop reading
+        boolean accept(RawObject object) throws IOException;
+    }
+
+    /**
+     * parse the files one by one (1.txt, 2.txt, ...) and hand the objects to the consumer strictly in the file order,
+     * while the parsing itself can be done by a bounded pool of threads
+     */
+    private static void forEachRawFile(final String folderName, final int threadNum, final boolean skipMissing,
+                                       final RawObjectConsumer consumer) throws IOException {
+        List<String> files = new ArrayList<>();
+        for (int i = 1; i < MAX_FILE_ID; i++) {
+            String filename = folderName + i + ".txt";
+            if (!skipMissing || new File(filename).exists()) {
+                files.add(filename);
+            }
+        }
+
+        final int threads = threadNum > 0 ? threadNum : Runtime.getRuntime().availableProcessors();
+        if (threads == 1) {
+            for (String filename : files) {
+                if (!consumer.accept(readRawFile(filename))) {
+                    break;
                 }
-                totalPoint++;
             }
-            if(totalPoint >= minTrajLen ) {
-                avgLength += totalPoint;
-                if (!oddPoints.isEmpty() && !evenPoints.isEmpty()) {
-                    int idd = Integer.parseInt(id);
-                    oddData.add(new Trajectory(idd, idd, oddPoints));
-                    evenData.add(new Trajectory(idd, idd, evenPoints));
-                    if (++n == totalObject) {
-                        break;
-                    }
+            return;
+        }
+
+        // a sliding window of files being parsed ahead of the consumer, which bounds the memory as well
+        final int window = threads * 4;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<RawObject>> pending = new ArrayDeque<>();
+        try {
+            Iterator<String> nextFile = files.iterator();
+            while (nextFile.hasNext() && pending.size() < window) {
+                pending.add(submitRawFile(pool, nextFile.next()));
+            }
+            while (!pending.isEmpty()) {
+                RawObject object = waitFor(pending.poll());
+                if (nextFile.hasNext()) {
+                    pending.add(submitRawFile(pool, nextFile.next()));
+                }
+                if (!consumer.accept(object)) {
+                    break;
                 }
             }
+        } finally {
+            pending.forEach(f -> f.cancel(true));
+            pool.shutdownNow();
         }
-        return avgLength / totalObject;
+    }
+
+    // the points of one object, already split by odd/even dates
+    private record RawObject(int id, int totalPoint, Trajectory.Builder oddPoints, Trajectory.Builder evenPoints) {}
+
+    private static Future<RawObject> submitRawFile(ExecutorService pool, final String filename) {
+        return pool.submit(() -> readRawFile(filename));
+    }
+
+    private static RawObject waitFor(Future<RawObject> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Error in FileIO.readRawDataset: interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IOException("Error in FileIO.readRawDataset: " + e.getCause(), e.getCause());
+        }
+    }
+
+    // only the objects having enough points on both odd and even dates are kept
+    private static boolean accept(final RawObject object, Vector<Trajectory> oddData, Vector<Trajectory> evenData) {
+        if (object.totalPoint < MIN_TRAJ_LEN || object.oddPoints.isEmpty() || object.evenPoints.isEmpty()) {
+            return false;
+        }
+        oddData.add(object.oddPoints.build(object.id, object.id));
+        evenData.add(object.evenPoints.build(object.id, object.id));
+        return true;
+    }
+
+    // each thread reuses its own parser
+    private static final ThreadLocal<RawPointParser> parsers = ThreadLocal.withInitial(RawPointParser::new);
+
+    private static RawObject readRawFile(final String filename) throws IOException {
+        final byte[] content = Files.readAllBytes(Paths.get(filename));
+        final RawPointParser parser = parsers.get();
+        parser.reset(content, 0, content.length);
+
+        int id = 0, totalPoint = 0;
+        Trajectory.Builder oddPoints = new Trajectory.Builder(), evenPoints = new Trajectory.Builder();
+        while (parser.next()) {
+            id = parser.id;
+            if (parser.day % 2 == 0) {  // split dataset by the date of odd or even
+                evenPoints.add(parser.lng, parser.lat, parser.second);
+            }
+            else {
+                oddPoints.add(parser.lng, parser.lat, parser.second);
+            }
+            totalPoint++;
+        }
+        return new RawObject(id, totalPoint, oddPoints, evenPoints);
     }
 
 
@@ -62,13 +255,34 @@ public class FileIO {
     // to align each point to its nearest neighbour vertex on the road network
     public static Grid buildGridIndex(final String inputFile, final int maxNodeId,
                                       final float lng_step, final float lat_step) {
+        return buildGridIndex(inputFile, null, maxNodeId, lng_step, lat_step);
+    }
+
+    /**
+     * the same as above, but the grid index is loaded from the binary snapshot if it is still up-to-date,
+     * otherwise the grid index is built from the road network file and the snapshot is (re-)written
+     *
+     * @param snapshotFile  null for no snapshot
+     */
+    public static Grid buildGridIndex(final String inputFile, final String snapshotFile, final int maxNodeId,
+                                      final float lng_step, final float lat_step) {
         Grid grid = null;
         try {
+            long checksum = 0;
+            if (snapshotFile != null) {
+                checksum = GridSnapshot.checksum(inputFile);
+                grid = GridSnapshot.load(snapshotFile, checksum, maxNodeId, lng_step, lat_step);
+                if (grid != null) {
+                    return grid;
+                }
+            }
+
             BufferedReader br = new BufferedReader(new FileReader(inputFile));
             String s;
             float lng_max = Float.NEGATIVE_INFINITY, lng_min = Float.POSITIVE_INFINITY;
             float lat_max = Float.NEGATIVE_INFINITY, lat_min = Float.POSITIVE_INFINITY;
             Set<SimplePoint> pointSet = new HashSet<>();
+            Map<Integer, SimplePoint> vertices = new LinkedHashMap<>();
             while ((s = br.readLine()) != null) {
                 String[] tokens = s.split(",");
                 int vid = Integer.parseInt(tokens[0]);
@@ -76,7 +290,7 @@ public class FileIO {
                 float lng = Long.parseLong(lnglat[0]) / 10000000f;
                 float lat = Long.parseLong(lnglat[1]) / 10000000f;
                 SimplePoint p = new SimplePoint(vid, lng, lat);
-                Main.NNid2lnglat.put(vid, p);
+                vertices.put(vid, p);
 
                 // for grid construction
                 pointSet.add(p);
@@ -90,6 +304,12 @@ public class FileIO {
             grid = new Grid(lng_min, lng_max, lat_min, lat_max, lng_step, lat_step);
             grid.addVertices(pointSet); // the vertices of road network
             grid.maxNodeId = maxNodeId;
+            Main.roadVertices = RoadVertices.build(vertices.values());
+
+            if (snapshotFile != null) {
+                GridSnapshot.write(snapshotFile, checksum, maxNodeId, lng_step, lat_step, lng_min, lng_max, lat_min, lat_max,
+                        Main.roadVertices, grid.getCells());
+            }
 
         } catch (IOException e) {
             e.printStackTrace();
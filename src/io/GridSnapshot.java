@@ -0,0 +1,161 @@
+package io;
+
+import basic.Grid;
+import basic.GridCells;
+import basic.RoadVertices;
+import main.Main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * A binary snapshot of the grid index built from the road network file, in flat sections (little endian)
+ *      header:     magic, version, checksum of the road network file, maxNodeId,
+ *                  the steps and the spatial range of vertices, # of vertices, # of non-empty cells
+ *      vertices:   int id[], float lng[], float lat[]          -- all vertices sorted by id, see RoadVertices
+ *      cells:      long cellId[], int cellStart[],
+ *                  int id[], float lng[], float lat[]          -- the vertices grouped by cells, see GridCells
+ *
+ * all sections are mapped from disk and used by Main.roadVertices and the grid directly,
+ * the snapshot is written to a temporary file and then renamed (see AtomicFile), and one of a wrong size is stale
+ */
+public class GridSnapshot {
+
+    private static final int MAGIC = 0x47524453;     // "GRDS"
+    private static final int VERSION = 2;     // 2: the vertices are sorted by id
+    private static final int HEADER_SIZE = 56;      // padded to 8 bytes
+
+    // the checksum of the road network file, to detect a stale snapshot
+    public static long checksum(final String inputFile) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @return null if the snapshot doesn't exist or it is stale (i.e., built from a different file or with different parameters,
+     *         or not written completely)
+     */
+    public static Grid load(final String snapshotFile, final long checksum, final int maxNodeId,
+                            final float lng_step, final float lat_step) throws IOException {
+        Path path = Paths.get(snapshotFile);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != checksum
+                || buffer.getInt(16) != maxNodeId || buffer.getFloat(20) != lng_step || buffer.getFloat(24) != lat_step) {
+            return null;
+        }
+        float lng_min = buffer.getFloat(28), lng_max = buffer.getFloat(32);
+        float lat_min = buffer.getFloat(36), lat_max = buffer.getFloat(40);
+        int vertexNum = buffer.getInt(44);
+        int cellNum = buffer.getInt(48);
+        int cellVertexNum = buffer.getInt(52);
+        if (vertexNum < 0 || cellNum < 0 || cellVertexNum < 0 || fileSize(vertexNum, cellNum, cellVertexNum) != buffer.capacity()) {
+            return null;
+        }
+
+        // all vertices, looked up by id
+        int pos = HEADER_SIZE;
+        RoadVertices vertices = new RoadVertices(slice(buffer, pos, vertexNum * 4).asIntBuffer(),
+                slice(buffer, pos + vertexNum * 4, vertexNum * 4).asFloatBuffer(),
+                slice(buffer, pos + vertexNum * 8, vertexNum * 4).asFloatBuffer());
+        pos += vertexNum * 12;
+        pos += (8 - pos % 8) % 8;
+
+        // the cells, used as they are
+        int cellIdPos = pos, cellStartPos = cellIdPos + cellNum * 8;
+        int idPos = cellStartPos + (cellNum + 1) * 4;
+        int cellLngPos = idPos + cellVertexNum * 4, cellLatPos = cellLngPos + cellVertexNum * 4;
+        GridCells cells = new GridCells(slice(buffer, cellIdPos, cellNum * 8).asLongBuffer(),
+                slice(buffer, cellStartPos, (cellNum + 1) * 4).asIntBuffer(),
+                slice(buffer, idPos, cellVertexNum * 4).asIntBuffer(),
+                slice(buffer, cellLngPos, cellVertexNum * 4).asFloatBuffer(),
+                slice(buffer, cellLatPos, cellVertexNum * 4).asFloatBuffer());
+
+        Grid grid = new Grid(lng_min, lng_max, lat_min, lat_max, lng_step, lat_step);
+        grid.setCells(cells);
+        grid.maxNodeId = maxNodeId;
+        Main.roadVertices = vertices;
+        return grid;
+    }
+
+    private static long fileSize(long vertexNum, long cellNum, long cellVertexNum) {
+        long verticesSize = vertexNum * 12;
+        long padding = (8 - (HEADER_SIZE + verticesSize) % 8) % 8;
+        return HEADER_SIZE + verticesSize + padding + cellNum * 8 + (cellNum + 1) * 4 + cellVertexNum * 12;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int length) {
+        return buffer.slice(from, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static void write(final String snapshotFile, final long checksum, final int maxNodeId,
+                             final float lng_step, final float lat_step,
+                             final float lng_min, final float lng_max, final float lat_min, final float lat_max,
+                             final RoadVertices vertices, final GridCells cells) throws IOException {
+        int vertexNum = vertices.getVertexNum();
+        int cellNum = cells.getCellNum(), cellVertexNum = cells.getVertexNum();
+        int verticesSize = vertexNum * 12;
+        int padding = (8 - (HEADER_SIZE + verticesSize) % 8) % 8;
+        long total = fileSize(vertexNum, cellNum, cellVertexNum);
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Error in GridSnapshot.write: the snapshot is larger than 2GB.");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) total).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(checksum).putInt(maxNodeId).putFloat(lng_step).putFloat(lat_step)
+                .putFloat(lng_min).putFloat(lng_max).putFloat(lat_min).putFloat(lat_max)
+                .putInt(vertexNum).putInt(cellNum).putInt(cellVertexNum);
+
+        int pos = HEADER_SIZE, i;
+        for (i = 0; i < vertexNum; i++) {
+            buffer.putInt(pos + i * 4, vertices.getVertexId(i));
+            buffer.putFloat(pos + (vertexNum + i) * 4, vertices.getLongitude(i));
+            buffer.putFloat(pos + (2 * vertexNum + i) * 4, vertices.getLatitude(i));
+        }
+        buffer.position(pos + verticesSize + padding);
+        for (i = 0; i < cellNum; i++) {
+            buffer.putLong(cells.getCellId(i));
+        }
+        for (i = 0; i <= cellNum; i++) {
+            buffer.putInt(i < cellNum ? cells.getStart(i) : cells.getVertexNum());
+        }
+        for (i = 0; i < cellVertexNum; i++) {
+            buffer.putInt(cells.getVertexId(i));
+        }
+        for (i = 0; i < cellVertexNum; i++) {
+            buffer.putFloat(cells.getLongitude(i));
+        }
+        for (i = 0; i < cellVertexNum; i++) {
+            buffer.putFloat(cells.getLatitude(i));
+        }
+
+        buffer.flip();
+        AtomicFile.write(snapshotFile, buffer);
+    }
+}
@@ -0,0 +1,203 @@
+package io;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+
+/**
+ * A byte-level parser for the raw T-Drive lines, i.e., "id,yyyy-MM-dd HH:mm:ss,lng,lat"
+ * each call of next() decodes one line into the primitive fields below without creating any String
+ *
+ * the results are the same as String.split + Timestamp.valueOf + Float.parseFloat,
+ * that is, the timestamp is interpreted in the default time zone of JVM
+ */
+public class RawPointParser {
+
+    // the fields of the current point
+    public int id;
+    public long second;     // unit: second
+    public int day;         // day of month
+    public float lng;
+    public float lat;
+
+    private byte[] buffer;
+    private int pos;
+    private int end;
+
+    private final ZoneRules zoneRules = ZoneId.systemDefault().getRules();
+    private final boolean fixedOffset = zoneRules.isFixedOffset();
+    private final long fixedOffsetSecond = zoneRules.isFixedOffset() ? zoneRules.getOffset(Instant.EPOCH).getTotalSeconds() : 0;
+    private long cachedHour = Long.MIN_VALUE;   // the local hour whose zone offset is cached
+    private long cachedOffsetSecond;
+
+    private static final int[] FLOAT_POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    public RawPointParser() {
+        reset(new byte[0], 0, 0);
+    }
+
+    /** the parser can be reused for another buffer, the range is [from, to) */
+    public void reset(byte[] _buffer, int from, int to) {
+        buffer = _buffer;
+        pos = from;
+        end = to;
+    }
+
+    /**
+     * @return false if there is no more line in the buffer
+     */
+    public boolean next() {
+        // skip the empty lines
+        while (pos < end && (buffer[pos] == '\n' || buffer[pos] == '\r')) {
+            pos++;
+        }
+        if (pos >= end) {
+            return false;
+        }
+
+        id = parseInt();
+        expect(',');
+        parseDateTime();
+        expect(',');
+        lng = parseFloat();
+        expect(',');
+        lat = parseFloat();
+
+        // the rest of this line (if any) is ignored
+        while (pos < end && buffer[pos] != '\n') {
+            pos++;
+        }
+        return true;
+    }
+
+    private int parseInt() {
+        boolean negative = false;
+        if (pos < end && buffer[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        int value = 0, digits = 0;
+        while (pos < end && buffer[pos] >= '0' && buffer[pos] <= '9') {
+            value = value * 10 + (buffer[pos++] - '0');
+            digits++;
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("Error in RawPointParser.parseInt: not a number at position " + pos);
+        }
+        return negative ? -value : value;
+    }
+
+    private int parseDigits(int len) {
+        int value = 0;
+        for (int i = 0; i < len; i++) {
+            byte b = pos < end ? buffer[pos] : 0;
+            if (b < '0' || b > '9') {
+                throw new IllegalArgumentException("Error in RawPointParser.parseDateTime: illegal timestamp at position " + pos);
+            }
+            value = value * 10 + (b - '0');
+            pos++;
+        }
+        return value;
+    }
+
+    // yyyy-MM-dd HH:mm:ss
+    private void parseDateTime() {
+        int year = parseDigits(4);
+        expect('-');
+        int month = parseDigits(2);
+        expect('-');
+        day = parseDigits(2);
+        expect(' ');
+        int hour = parseDigits(2);
+        expect(':');
+        int minute = parseDigits(2);
+        expect(':');
+        int sec = parseDigits(2);
+
+        long localHour = daysFromCivil(year, month, day) * 24 + hour;
+        long localSecond = localHour * 3600 + minute * 60L + sec;
+        second = localSecond - zoneOffset(localHour, year, month, day, hour);
+    }
+
+    // the offset only changes at DST transitions, so it is cached per local hour
+    private long zoneOffset(long localHour, int year, int month, int dayOfMonth, int hour) {
+        if (fixedOffset) {
+            return fixedOffsetSecond;
+        }
+        if (localHour != cachedHour) {
+            cachedHour = localHour;
+            cachedOffsetSecond = zoneRules.getOffset(LocalDateTime.of(year, month, dayOfMonth, hour, 0)).getTotalSeconds();
+        }
+        return cachedOffsetSecond;
+    }
+
+    // days since 1970-01-01 of the given date in the proleptic Gregorian calendar
+    private static long daysFromCivil(int year, int month, int dayOfMonth) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + dayOfMonth - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    /**
+     * if the decimal digits fit into the float mantissa, a single float division is exact-rounded,
+     * which is the same as Float.parseFloat; otherwise fall back to it (rarely happened for GPS data)
+     */
+    private float parseFloat() {
+        final int start = pos;
+        boolean negative = false;
+        if (pos < end && (buffer[pos] == '-' || buffer[pos] == '+')) {
+            negative = buffer[pos] == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0, fraction = 0;
+        boolean dot = false;
+        while (pos < end) {
+            byte b = buffer[pos];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (dot) {
+                    fraction++;
+                }
+            }
+            else if (b == '.' && !dot) {
+                dot = true;
+            }
+            else {
+                break;
+            }
+            pos++;
+            if (digits > 18) {
+                break;
+            }
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("Error in RawPointParser.parseFloat: not a number at position " + start);
+        }
+
+        if (mantissa <= (1 << 24) && fraction < FLOAT_POW10.length
+                && (pos >= end || buffer[pos] == ',' || buffer[pos] == '\r' || buffer[pos] == '\n')) {
+            float value = (float) mantissa / FLOAT_POW10[fraction];
+            return negative ? -value : value;
+        }
+
+        // slow path, e.g., too many digits or the exponent notation
+        while (pos < end && buffer[pos] != ',' && buffer[pos] != '\r' && buffer[pos] != '\n') {
+            pos++;
+        }
+        return Float.parseFloat(new String(buffer, start, pos - start, StandardCharsets.US_ASCII));
+    }
+
+    private void expect(char c) {
+        if (pos >= end || buffer[pos] != c) {
+            throw new IllegalArgumentException("Error in RawPointParser: '" + c + "' is expected at position " + pos);
+        }
+        pos++;
+    }
+}
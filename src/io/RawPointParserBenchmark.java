@@ -0,0 +1,103 @@
+package io;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time the parsing of raw T-Drive lines: the old path (String.split + Timestamp.valueOf + Float.parseFloat)
+ * against RawPointParser, single-threaded, and print the throughput of both in points/s
+ *      the files are read into memory before timing, so only the parsing is measured,
+ *      and both paths are checked to give the same points
+ *
+ * usage: java io.RawPointParserBenchmark [the folder of raw files, default Testing/T-Drive/] [# of rounds, default 5]
+ */
+public class RawPointParserBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        final String folderName = args.length > 0 ? args[0] : System.getProperty("user.dir") + "/Testing/T-Drive/";
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<byte[]> files = new ArrayList<>();
+        for (int i = 1; i < 10357; i++) {   // the same files as FileIO.readRawDataset
+            File file = new File(folderName + i + ".txt");
+            if (file.exists()) {
+                files.add(Files.readAllBytes(file.toPath()));
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("Error in RawPointParserBenchmark.main: no raw file in " + folderName);
+        }
+
+        long[] oldResult = parseOld(files), newResult = parseNew(files);
+        if (oldResult[0] != newResult[0] || oldResult[1] != newResult[1]) {
+            throw new IllegalStateException("Error in RawPointParserBenchmark.main: the two parsers give different points.");
+        }
+        System.out.printf("[INFO] %d files, %d points, %d rounds\n", files.size(), oldResult[0], rounds);
+
+        // the rounds of both paths are interleaved, and the best round of each is reported
+        double oldBest = Double.MAX_VALUE, newBest = Double.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            parseOld(files);
+            oldBest = Math.min(oldBest, (System.nanoTime() - start) / 1e9);
+            start = System.nanoTime();
+            parseNew(files);
+            newBest = Math.min(newBest, (System.nanoTime() - start) / 1e9);
+        }
+        System.out.printf("\t split/Timestamp/parseFloat: %.3f s, %.2fM points/s\n", oldBest, oldResult[0] / oldBest / 1e6);
+        System.out.printf("\t RawPointParser:             %.3f s, %.2fM points/s\n", newBest, newResult[0] / newBest / 1e6);
+    }
+
+    // the old path of FileIO.readRawDataset, @return # of points and a hash of their fields
+    private static long[] parseOld(final List<byte[]> files) throws IOException {
+        final int idPos = 0, timePos = 1, lngPos = 2, latPos = 3;
+        long n = 0, hash = 0;
+        for (byte[] content : files) {
+            BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8));
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] tokens = line.split(",");
+                int id = Integer.parseInt(tokens[idPos]);
+                Timestamp t = Timestamp.valueOf(tokens[timePos]);
+                int day = t.toLocalDateTime().getDayOfMonth();
+                float lng = Float.parseFloat(tokens[lngPos]), lat = Float.parseFloat(tokens[latPos]);
+                long second = t.getTime() / 1000;
+                hash = hash(hash, id, day, lng, lat, second);
+                n++;
+            }
+        }
+        return new long[]{n, hash};
+    }
+
+    private static long[] parseNew(final List<byte[]> files) {
+        RawPointParser parser = new RawPointParser();
+        long n = 0, hash = 0;
+        for (byte[] content : files) {
+            parser.reset(content, 0, content.length);
+            while (parser.next()) {
+                hash = hash(hash, parser.id, parser.day, parser.lng, parser.lat, parser.second);
+                n++;
+            }
+        }
+        return new long[]{n, hash};
+    }
+
+    private static long hash(long h, int id, int day, float lng, float lat, long second) {
+        h = h * 31 + id;
+        h = h * 31 + day;
+        h = h * 31 + Float.floatToIntBits(lng);
+        h = h * 31 + Float.floatToIntBits(lat);
+        return h * 31 + second;
+    }
+}
@@ -0,0 +1,222 @@
+package io;
+
+import basic.Trajectory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary columnar file of the raw trajectories, one object per raw file
+ *
+ * layout (little endian):
+ *      header:         magic, version, fingerprint of the raw files, # of objects, offset of the object table
+ *      point blocks:   for each object, float lng[n], float lat[n], long time[n]
+ *                      where the first points are on odd dates and the rest are on even dates
+ *      object table:   for each object, id, # of odd points, # of even points, offset of its point block
+ *
+ * the loader maps the file into memory, and the columns of a trajectory are bulk-copied from its point block
+ *
+ * the file is written through a temporary file (see AtomicFile), and the loader checks that the file holds
+ * exactly the object table and the point blocks of its header, so a file cut short is never used,
+ * and that its fingerprint is the same as the one of the raw files (see FileIO.fingerprint), so a stale one is never used
+ */
+public class TrajectoryStore {
+
+    private static final int MAGIC = 0x54524A43;     // "TRJC"
+    private static final int VERSION = 2;     // 2: the fingerprint of the raw files
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8;
+    private static final int ENTRY_SIZE = 4 + 4 + 4 + 8;
+    private static final int POINT_SIZE = 4 + 4 + 8;
+
+    private final ByteBuffer buffer;
+    private final long fingerprint;
+    private final int objectNum;
+    private final long tableOffset;
+
+    private TrajectoryStore(ByteBuffer _buffer) {
+        buffer = _buffer;
+        fingerprint = buffer.getLong(8);
+        objectNum = buffer.getInt(16);
+        tableOffset = buffer.getLong(20);
+    }
+
+    /**
+     * @return null if the file doesn't exist, or it isn't a complete trajectory store of this version,
+     *         or it is converted from raw files of a different fingerprint
+     */
+    public static TrajectoryStore load(final String inputFile, final long fingerprint) throws IOException {
+        TrajectoryStore store = load(inputFile);
+        return store != null && store.fingerprint == fingerprint ? store : null;
+    }
+
+    /**
+     * the same as above, but the raw files aren't checked
+     */
+    public static TrajectoryStore load(final String inputFile) throws IOException {
+        Path path = Paths.get(inputFile);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Error in TrajectoryStore.load: the file is larger than 2GB.");
+            }
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        TrajectoryStore store = new TrajectoryStore(buffer);
+        return store.isComplete() ? store : null;
+    }
+
+    // the object table ends the file, and the point blocks are consecutive up to the table
+    private boolean isComplete() {
+        if (objectNum < 0 || tableOffset < HEADER_SIZE || tableOffset + (long) objectNum * ENTRY_SIZE != buffer.capacity()) {
+            return false;
+        }
+        long offset = HEADER_SIZE;
+        for (int i = 0; i < objectNum; i++) {
+            int pos = (int) (tableOffset + (long) i * ENTRY_SIZE);
+            int oddNum = buffer.getInt(pos + 4), evenNum = buffer.getInt(pos + 8);
+            if (oddNum < 0 || evenNum < 0 || buffer.getLong(pos + 12) != offset) {
+                return false;
+            }
+            offset += ((long) oddNum + evenNum) * POINT_SIZE;
+        }
+        return offset == tableOffset;
+    }
+
+    public int getObjectNum() {
+        return objectNum;
+    }
+
+    public int getObjectId(int idx) {
+        return buffer.getInt(entry(idx));
+    }
+
+    public int getOddPointNum(int idx) {
+        return buffer.getInt(entry(idx) + 4);
+    }
+
+    public int getEvenPointNum(int idx) {
+        return buffer.getInt(entry(idx) + 8);
+    }
+
+    public int getPointNum(int idx) {
+        return getOddPointNum(idx) + getEvenPointNum(idx);
+    }
+
+    public Trajectory getOddTrajectory(int idx) {
+        return getTrajectory(idx, 0, getOddPointNum(idx));
+    }
+
+    public Trajectory getEvenTrajectory(int idx) {
+        return getTrajectory(idx, getOddPointNum(idx), getEvenPointNum(idx));
+    }
+
+    private int entry(int idx) {
+        if (idx < 0 || idx >= objectNum) {
+            throw new IndexOutOfBoundsException("Error in TrajectoryStore: illegal object index " + idx);
+        }
+        return (int) (tableOffset + (long) idx * ENTRY_SIZE);
+    }
+
+    // copy the columns of [from, from + size) in the point block of this object
+    private Trajectory getTrajectory(int idx, int from, int size) {
+        int id = getObjectId(idx);
+        int blockOffset = (int) buffer.getLong(entry(idx) + 12);
+        int blockSize = getPointNum(idx);
+
+        float[] lngs = new float[size], lats = new float[size];
+        long[] times = new long[size];
+        slice(blockOffset + from * 4, size * 4).asFloatBuffer().get(lngs);
+        slice(blockOffset + (blockSize + from) * 4, size * 4).asFloatBuffer().get(lats);
+        slice(blockOffset + blockSize * 8 + from * 8, size * 8).asLongBuffer().get(times);
+        return new Trajectory(id, id, lngs, lats, times, size);
+    }
+
+    private ByteBuffer slice(int from, int length) {
+        return buffer.slice(from, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    /**
+     * write the objects one by one, the object table is appended by finish, which then replaces the file at once,
+     * and nothing is left if it is closed without finishing, e.g., after an exception
+     */
+    public static class Writer implements Closeable {
+        private final AtomicFile file;
+        private final FileChannel channel;
+        private final ByteArrayOutputStream table = new ByteArrayOutputStream();
+        private int objectNum = 0;
+        private long offset = HEADER_SIZE;
+
+        private final long fingerprint;
+
+        /** @param _fingerprint  the fingerprint of the raw files converted, see FileIO.fingerprint */
+        public Writer(final String outputFile, final long _fingerprint) throws IOException {
+            fingerprint = _fingerprint;
+            file = new AtomicFile(outputFile);
+            channel = file.getChannel();
+            channel.position(HEADER_SIZE);
+        }
+
+        public void writeObject(int id, Trajectory oddPoints, Trajectory evenPoints) throws IOException {
+            int oddNum = oddPoints.get_length(), evenNum = evenPoints.get_length(), n = oddNum + evenNum;
+            ByteBuffer block = ByteBuffer.allocate(n * POINT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < n; i++) {
+                block.putFloat(i < oddNum ? oddPoints.get_longitude(i) : evenPoints.get_longitude(i - oddNum));
+            }
+            for (int i = 0; i < n; i++) {
+                block.putFloat(i < oddNum ? oddPoints.get_latitude(i) : evenPoints.get_latitude(i - oddNum));
+            }
+            for (int i = 0; i < n; i++) {
+                block.putLong(i < oddNum ? oddPoints.get_time(i) : evenPoints.get_time(i - oddNum));
+            }
+            block.flip();
+            while (block.hasRemaining()) {
+                channel.write(block);
+            }
+
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            entry.putInt(id).putInt(oddNum).putInt(evenNum).putLong(offset);
+            table.write(entry.array());
+            offset += (long) n * POINT_SIZE;
+            objectNum++;
+        }
+
+        public void finish() throws IOException {
+            ByteBuffer tail = ByteBuffer.wrap(table.toByteArray());
+            while (tail.hasRemaining()) {
+                channel.write(tail);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(fingerprint).putInt(objectNum).putLong(offset);
+            header.flip();
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            file.commit();
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -1,74 +1,123 @@
 package main;
 
 import index.AscendNeighbor;
+import index.BatchQuery;
+import index.inverted.InvertedIndex;
 import index.rtree.RTLeafElement;
+import index.wrtree.FrozenWRTree;
+import index.wrtree.MappedWRTree;
 import index.wrtree.WRTree;
+import signatures.SparseVector;
 import signatures.temporalEMD.EMDmetric;
 
+import java.io.IOException;
 import java.util.*;
 
 import static signatures.Function.cutSignature;
 
 public class Linking {
 
-    public static int[] linearExecute(final Map<String, Map<Integer, Double>> oddSignatures,
-                                      final Map<String, Map<Integer, Double>> evenSignatures,
-                                      final int cutoff, final int topK, final String sigType) {
+    private static final int LINEAR_BLOCK_SIZE = 64;     // # of odd objects linked by each task of the parallel linear scan
+
+    /**
+     * link each odd object by scanning all even objects, the odd objects are split into blocks linked in parallel
+     * by the given # of threads (0 for all available cores, see BatchQuery.forEachBlock),
+     * and the result is exactly the same as the serial one, since each odd object scans the even ones in the same order
+     */
+    public static int[] linearExecute(final Map<String, SparseVector> oddSignatures,
+                                      final Map<String, SparseVector> evenSignatures,
+                                      final int cutoff, final int topK, final String sigType, final int threadNum) {
         System.out.println("[INFO] Start Linear Linking ...");
+        final boolean cosine = !sigType.equalsIgnoreCase("time"); // for temporal signature, we use EMD as the metric
+
+        // the reduced signatures of both sets, computed only once and only read by the tasks
+        // the objects without any signature are skipped, and the others keep the iteration order of the maps
+        List<String> oddList = new ArrayList<>(), evenList = new ArrayList<>();
+        List<SparseVector> oddSigList = new ArrayList<>(), evenSigList = new ArrayList<>();
+        reduceSignatures(oddSignatures, cutoff, oddList, oddSigList);
+        reduceSignatures(evenSignatures, cutoff, evenList, evenSigList);
+        final String[] oddObjects = oddList.toArray(new String[0]), evenObjects = evenList.toArray(new String[0]);
+        final SparseVector[] oddSigs = oddSigList.toArray(new SparseVector[0]), evenSigs = evenSigList.toArray(new SparseVector[0]);
+
+        // each block counts its own successes, which are summed up at last
+        final int[][] blockSuccess = new int[(oddObjects.length + LINEAR_BLOCK_SIZE - 1) / LINEAR_BLOCK_SIZE][];
+        BatchQuery.forEachBlock(oddObjects.length, LINEAR_BLOCK_SIZE, threadNum, (from, to) ->
+                blockSuccess[from / LINEAR_BLOCK_SIZE] = linearScan(oddObjects, oddSigs, from, to, evenObjects, evenSigs, topK, cosine));
         int[] success = new int[topK + 1];
         Arrays.fill(success, 0);
+        for (int[] block : blockSuccess) {
+            for (int k = 1; k <= topK; k++) {
+                success[k] += block[k];
+            }
+        }
+        return success;
+    }
 
-        final boolean cosine = !sigType.equalsIgnoreCase("time"); // for temporal signature, we use EMD as the metric
-        Map<String, Map<Integer, Double>> reducedSig_even = new HashMap<>();    // to avoid repeated computation
-        for (Map.Entry<String, Map<Integer, Double>> oddEntry : oddSignatures.entrySet()) {
-            String oddObject = oddEntry.getKey();
-            Map<Integer, Double> oddSig = cutSignature(oddEntry.getValue(), cutoff);  // the full-length signatures have already been sorted
-
-            if (oddSig != null && !oddSig.isEmpty()) {
-                // if top-K NNs are required
-                Queue<AscendNeighbor> NNqueue = new PriorityQueue<>();
-
-                // or top-1
-                double maxSim = Double.NEGATIVE_INFINITY;
-                String matchObj = "";
-
-                for (Map.Entry<String, Map<Integer, Double>> evenEntry : evenSignatures.entrySet()) {
-                    String evenObject = evenEntry.getKey();
-                    Map<Integer, Double> evenSig = reducedSig_even.compute(evenObject, (k, v) -> v == null ?
-                            cutSignature(evenEntry.getValue(), cutoff) : v);
-                    if (evenSig != null && !evenSig.isEmpty()) {
-                        float similarity = (float) (cosine ? computeCosineSimilarity(oddSig, evenSig) : EMDmetric.computeSimilarity(oddSig, evenSig));
-                        if (similarity > 0) {
-                            if (topK == 1) {
-                                if (similarity > maxSim) {
-                                    maxSim = similarity;
-                                    matchObj = evenObject;
-                                } else if (similarity == maxSim && oddObject.equals(evenObject)) {
-                                    matchObj = evenObject;
-                                }
-                            } else {
-                                updateNNqueue(NNqueue, topK, evenObject, similarity);
-                            }
+    private static void reduceSignatures(final Map<String, SparseVector> signatures, final int cutoff,
+                                         List<String> objects, List<SparseVector> reducedSigs) {
+        for (Map.Entry<String, SparseVector> entry : signatures.entrySet()) {
+            SparseVector reduced = cutSignature(entry.getValue(), cutoff);  // the full-length signatures have already been sorted
+            if (reduced != null && !reduced.isEmpty()) {
+                objects.add(entry.getKey());
+                reducedSigs.add(reduced);
+            }
+        }
+    }
+
+    // link the odd objects [from, to) by scanning all even objects, it only reads the given arrays
+    private static int[] linearScan(final String[] oddObjects, final SparseVector[] oddSigs, final int from, final int to,
+                                    final String[] evenObjects, final SparseVector[] evenSigs,
+                                    final int topK, final boolean cosine) {
+        int[] success = new int[topK + 1];
+        Arrays.fill(success, 0);
+        for (int i = from; i < to; i++) {
+            String oddObject = oddObjects[i];
+            SparseVector oddSig = oddSigs[i];
+
+            // if top-K NNs are required
+            Queue<AscendNeighbor> NNqueue = new PriorityQueue<>();
+
+            // or top-1
+            double maxSim = Double.NEGATIVE_INFINITY;
+            String matchObj = "";
+
+            for (int j = 0; j < evenObjects.length; j++) {
+                String evenObject = evenObjects[j];
+                SparseVector evenSig = evenSigs[j];
+                float similarity = (float) (cosine ? computeCosineSimilarity(oddSig, evenSig) : EMDmetric.computeSimilarity(oddSig, evenSig));
+                if (similarity > 0) {
+                    if (topK == 1) {
+                        if (similarity > maxSim) {
+                            maxSim = similarity;
+                            matchObj = evenObject;
+                        } else if (similarity == maxSim && oddObject.equals(evenObject)) {
+                            matchObj = evenObject;
                         }
+                    } else {
+                        updateNNqueue(NNqueue, topK, evenObject, similarity);
                     }
                 }
+            }
 
-                if (topK == 1) {
-                    if (matchObj.equals(oddObject)) {
-                        success[topK]++;
-                    }
-                } else {
-                    checkNNqueue(NNqueue, oddObject, topK, success);
+            if (topK == 1) {
+                if (matchObj.equals(oddObject)) {
+                    success[topK]++;
                 }
+            } else {
+                checkNNqueue(NNqueue, oddObject, topK, success);
             }
         }
-
         return success;
     }
 
-    public static int[] rtreeBased(final Map<String, Map<Integer, Double>> oddSignatures,
-                                   final Map<String, Map<Integer, Double>> evenSignatures,
-                                   final int cutoff, final int topK, final int capacity, final int fanoutRatio) {
+    /**
+     * @param treeFile  the file of the WR-tree, which is mapped if it is built from the same even signatures,
+     *                  otherwise the tree is built and written to it; null for always building the tree
+     */
+    public static int[] rtreeBased(final Map<String, SparseVector> oddSignatures,
+                                   final Map<String, SparseVector> evenSignatures,
+                                   final int cutoff, final int topK, final int capacity, final int fanoutRatio,
+                                   final String bulkLoading, final int threadNum, final String treeFile) {
         // prepare the list for tree construction
         // I always build the tree based on the even set and use the odd set as query
         // it can be reversed as what you expected
@@ -76,25 +125,141 @@ public class Linking {
         List<RTLeafElement> elementList = new ArrayList<>();
         evenSignatures.forEach((taxi, sig) -> elementList.add(new RTLeafElement(taxi, cutSignature(sig, cutoff))));
 
-        WRTree tree = new WRTree(capacity, capacity, fanoutRatio);
-        tree.constructRTree_STR(elementList);
+        MappedWRTree mappedTree = null;
+        long checksum = 0;
+        if (treeFile != null) {
+            checksum = MappedWRTree.checksum(elementList, capacity, fanoutRatio, bulkLoading);
+            try {
+                mappedTree = MappedWRTree.load(treeFile, checksum);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        FrozenWRTree tree = null;     // the built tree is frozen into arrays for the queries
+        if (mappedTree != null) {
+            System.out.printf("[INFO] WR-tree is mapped from %s: # of nodes = %d\n", treeFile, mappedTree.getNodeNum());
+        } else {
+            final long buildStart = System.nanoTime();
+            WRTree builtTree = buildTree(elementList, capacity, fanoutRatio, bulkLoading, threadNum);
+            System.out.printf("[INFO] WR-tree (%s bulk-loading) is built in %.3f s: # of nodes = %d, overlap = %.4f\n",
+                    bulkLoading, (System.nanoTime() - buildStart) / 1e9, builtTree.getNodeNum(), builtTree.computeOverlap());
+            tree = builtTree.freeze();
+            if (treeFile != null) {
+                try {
+                    MappedWRTree.write(treeFile, checksum, tree);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
 
         System.out.println("[INFO] Start WR-tree based Linking ...");
         int[] success = new int[topK + 1];
         Arrays.fill(success, 0);
 
-        for (String taxi : oddSignatures.keySet()) {        // query one by one
-            Map<Integer, Double> sig = oddSignatures.get(taxi);
-            Queue<AscendNeighbor> neighbors = tree.findKNN(cutSignature(sig, cutoff), topK);
+        List<String> queryTaxis = new ArrayList<>(oddSignatures.keySet());
+        List<SparseVector> querySigs = new ArrayList<>();
+        queryTaxis.forEach(taxi -> querySigs.add(cutSignature(oddSignatures.get(taxi), cutoff)));
+
+        // the queries run in parallel, and the answers are checked one by one in the order of queries
+        List<Queue<AscendNeighbor>> answers = mappedTree != null ? mappedTree.findKNN(querySigs, topK, threadNum) : tree.findKNN(querySigs, topK, threadNum);
+        for (int i = 0; i < queryTaxis.size(); i++) {
+            Queue<AscendNeighbor> neighbors = answers.get(i);
             if (neighbors != null) {
-                checkNNqueue(neighbors, taxi, topK, success);
+                checkNNqueue(neighbors, queryTaxis.get(i), topK, success);
             }
         }
 
+        long nodeAccessNum = mappedTree != null ? mappedTree.nodeAccessNum.sum() : tree.nodeAccessNum.sum();
+        System.out.printf("\t # of visited nodes per query = %.2f\n", nodeAccessNum / (double) Math.max(1, oddSignatures.size()));
+        elementList.clear();
+        return success;
+    }
+
+    /**
+     * build the WR-trees of both sides and join them (see FrozenWRTree.joinKNN),
+     * rather than querying the tree of the even set once for each odd object
+     */
+    public static int[] joinBased(final Map<String, SparseVector> oddSignatures,
+                                  final Map<String, SparseVector> evenSignatures,
+                                  final int cutoff, final int topK, final int capacity, final int fanoutRatio,
+                                  final String bulkLoading, final int threadNum) {
+        List<RTLeafElement> elementList = new ArrayList<>();
+        evenSignatures.forEach((taxi, sig) -> elementList.add(new RTLeafElement(taxi, cutSignature(sig, cutoff))));
+        List<RTLeafElement> queryList = new ArrayList<>();
+        oddSignatures.forEach((taxi, sig) -> {
+            SparseVector reduced = cutSignature(sig, cutoff);
+            if (reduced != null && !reduced.isEmpty()) {    // nothing can be found for them anyway
+                queryList.add(new RTLeafElement(taxi, reduced));
+            }
+        });
+
+        final long buildStart = System.nanoTime();
+        FrozenWRTree tree = buildTree(elementList, capacity, fanoutRatio, bulkLoading, threadNum).freeze();
+        FrozenWRTree queryTree = buildTree(queryList, capacity, fanoutRatio, bulkLoading, threadNum).freeze();
+        System.out.printf("[INFO] WR-trees of both sides (%s bulk-loading) are built in %.3f s: # of nodes = %d, %d\n",
+                bulkLoading, (System.nanoTime() - buildStart) / 1e9, queryTree.getNodeNum(), tree.getNodeNum());
+
+        System.out.println("[INFO] Start WR-tree join based Linking ...");
+        int[] success = new int[topK + 1];
+        Arrays.fill(success, 0);
+
+        Map<String, Queue<AscendNeighbor>> neighbors = tree.joinKNN(queryTree, topK);
+        neighbors.forEach((taxi, NNqueue) -> checkNNqueue(NNqueue, taxi, topK, success));
+
+        System.out.printf("\t # of visited node pairs = %d\n", tree.nodePairNum);
         elementList.clear();
         return success;
     }
 
+    /**
+     * build an inverted index of the even signatures, and find the top-k of each odd object,
+     * the answers are the same as linearExecute (see InvertedIndex)
+     *
+     * @param matrixProduct  all odd objects at once by the blocked sparse matrix product (see InvertedIndex.productKNN),
+     *                       rather than one by one with MaxScore pruning
+     */
+    public static int[] invertedBased(final Map<String, SparseVector> oddSignatures,
+                                      final Map<String, SparseVector> evenSignatures,
+                                      final int cutoff, final int topK, final int threadNum, final boolean matrixProduct) {
+        List<String> evenList = new ArrayList<>();
+        List<SparseVector> evenSigList = new ArrayList<>();
+        reduceSignatures(evenSignatures, cutoff, evenList, evenSigList);
+        final long buildStart = System.nanoTime();
+        InvertedIndex index = new InvertedIndex(evenList.toArray(new String[0]), evenSigList.toArray(new SparseVector[0]));
+        System.out.printf("[INFO] Inverted index is built in %.3f s: # of entities = %d, # of postings = %d\n",
+                (System.nanoTime() - buildStart) / 1e9, index.getEntityNum(), index.getPostingNum());
+
+        System.out.println(matrixProduct ? "[INFO] Start sparse matrix product based Linking ..." : "[INFO] Start inverted index based Linking ...");
+        int[] success = new int[topK + 1];
+        Arrays.fill(success, 0);
+
+        List<String> queryTaxis = new ArrayList<>();
+        List<SparseVector> querySigs = new ArrayList<>();
+        reduceSignatures(oddSignatures, cutoff, queryTaxis, querySigs);
+        List<Queue<AscendNeighbor>> answers = matrixProduct ? index.productKNN(querySigs, topK, threadNum) : index.findKNN(querySigs, topK, threadNum);
+        for (int i = 0; i < queryTaxis.size(); i++) {
+            checkNNqueue(answers.get(i), queryTaxis.get(i), topK, success);
+        }
+
+        if (!matrixProduct) {
+            System.out.printf("\t # of scored candidates per query = %.2f\n", index.scoredNum.sum() / (double) Math.max(1, oddSignatures.size()));
+        }
+        return success;
+    }
+
+    private static WRTree buildTree(final List<RTLeafElement> elementList, final int capacity, final int fanoutRatio,
+                                    final String bulkLoading, final int threadNum) {
+        WRTree tree = new WRTree(capacity, capacity, fanoutRatio);
+        if (bulkLoading.equalsIgnoreCase("hilbert")) {
+            tree.constructRTree_Hilbert(elementList);
+        } else {
+            tree.constructRTree_STR(elementList, threadNum);
+        }
+        return tree;
+    }
+
     /* if the query taxi can be found in final NNqueue, our linking is accurate */
     private static void checkNNqueue(final Queue<AscendNeighbor> NNqueue, final String queryTaxi,
                                      final int topK, int[] success) {
@@ -160,9 +325,7 @@ public class Linking {
     // cosine similarity is equal to dot product (as the signatures are already normalized and sorted)
     // NOTE: in the paper of ICDE'19, we used Jaccard similarity for sequential signature
     //   while in TKDE'20, we found that it is more effective to construct TFIDF-based signatures along with cosine similarity for sequential signature
-    private static double computeCosineSimilarity(final Map<Integer, Double> v1, final Map<Integer, Double> v2) {
-        final List<Double> similarity = new ArrayList<>();
-        v1.forEach((p, v) -> similarity.add(v2.getOrDefault(p, 0.0) * v));
-        return similarity.stream().mapToDouble(v -> v).sum();
+    private static double computeCosineSimilarity(final SparseVector v1, final SparseVector v2) {
+        return v1.dot(v2);
     }
 }
@@ -4,17 +4,28 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.FileIO;
 import signatures.Function;
+import signatures.SparseVector;
 import basic.Grid;
+import basic.NearestVertexCache;
+import basic.RoadVertices;
 import basic.SimplePoint;
 import basic.Trajectory;
 
 public class Main {
 
     public static final boolean DEBUG = false;
-    public static Map<Integer, SimplePoint> NNid2lnglat = new HashMap<>();   // read from file
+    public static RoadVertices roadVertices;    // the vertices of road network, read from file or mapped from the snapshot
+    public static Map<Integer, SimplePoint> NNid2lnglat = new ConcurrentHashMap<>();   // the outliers added during map-matching (possibly in parallel)
+
+    // the point of a vertex of road network or an outlier, null if unknown
+    public static SimplePoint getPoint(int vid) {
+        SimplePoint p = roadVertices != null ? roadVertices.get(vid) : null;
+        return p != null ? p : NNid2lnglat.get(vid);
+    }
 
     public static void main(String[] args) throws IOException {
 
@@ -24,30 +35,50 @@ public class Main {
         Properties props = springUtil(paramFile);
 
         final String dataInputFolder = homepath + props.getProperty("dataInput");
+        final String binaryDataInput = props.getProperty("binaryDataInput", "").trim();   // the binary copy of the raw data, empty for always reading the raw data
         final String nodeFileName = homepath + props.getProperty("roadNetworkFile");    // the road intersections on road network (for map-matching)
+        final String gridSnapshot = props.getProperty("roadNetworkSnapshot", "").trim();   // the binary snapshot of the grid index, empty for always building it from the road network file
 
         final int cutoff = Integer.parseInt(props.getProperty("reduction"));        // reduce the full-length signature to top-m sorted by the weight
         final int topK = Integer.parseInt(props.getProperty("topK"));               // to get the accuracy@K of the linking result
         final int objectTotal = Integer.parseInt(props.getProperty("objectNum"));   // how many object will be tested
         final String method = props.getProperty("linkingMethod");                   // the linking method used in this program, WR-tree is more efficient than linear scan
         final String sigType = props.getProperty("signatureType");                  // which signature will be used for linking
+        final String bulkLoading = props.getProperty("bulkLoading", "STR").trim();   // how the WR-tree is bulk-loaded: STR, Hilbert
+        final String treeFile = props.getProperty("wrtreeFile", "").trim();         // the file of WR-tree, empty for always building the tree
 
         final int gramLen = Integer.parseInt(props.getProperty("seq_gramLen"));    // for sequential signatures, we model it via n-gram, which should be specified
         final int timeWindowSize = Integer.parseInt(props.getProperty("time_windowSize"));      // for temporal signatures, we divide one day into several time windows and vectorize it
         final int gridNum = Integer.parseInt(props.getProperty("st_gridNum"));           // for spatiotemporoal signatures, we model the time dimension on an hourly basis,
                                         // while for the spatial dimension, we may approximate a point as a grid cell (should specify the grid partition, like 100*100, 200*200)
+        final int threadNum = Integer.parseInt(props.getProperty("threadNum"));     // # of threads for the parallel parts, 1 for serial and 0 for all available cores
+        final int cacheSize = Integer.parseInt(props.getProperty("mapMatchingCacheSize", "0"));    // # of cached map-matching results, 0 for no cache
+        final String cachePolicy = props.getProperty("mapMatchingCachePolicy", "LRU").trim();     // the eviction policy of the cache: LRU, FIFO
+        final int maxRing = Integer.parseInt(props.getProperty("mapMatchingMaxRing", "1"));    // how far (in rings of grid cells) to search for a vertex before creating an outlier
 
 
         /* Step-1: build a simple grid index, in order to align each raw point with its nearest road intersection */
         final float step = 0.001f;    // determine the size of each grid cell
         final int maxVertexId = 296709;   // the max ID of the road node
-        final Grid grid = FileIO.buildGridIndex(nodeFileName, maxVertexId, step, step);    // the intersections on the road network
+        final Grid grid = FileIO.buildGridIndex(nodeFileName, gridSnapshot.isEmpty() ? null : homepath + gridSnapshot,
+                maxVertexId, step, step);    // the intersections on the road network
+        grid.setMaxRing(maxRing);
+        if (cacheSize > 0) {
+            grid.setCache(new NearestVertexCache(cacheSize, NearestVertexCache.Policy.valueOf(cachePolicy.toUpperCase())));
+        }
 
         /* Step-2: read raw data from file and meanwhile split data into two parts based on the date (odd or even) */
         System.out.println("[INFO] Reading raw data for map-matching and split meanwhile ...");
 
         final Vector<Trajectory> oddData = new Vector<>(), evenData = new Vector<>();
-        final double avgLength = FileIO.readRawDataset(dataInputFolder, objectTotal, oddData, evenData);
+        final double avgLength;
+        if (binaryDataInput.isEmpty()) {
+            avgLength = FileIO.readRawDataset(dataInputFolder, objectTotal, threadNum, oddData, evenData);
+        }
+        else {
+            final String binaryDataFile = homepath + binaryDataInput;
+            avgLength = FileIO.readBinaryDataset(binaryDataFile, dataInputFolder, threadNum, objectTotal, oddData, evenData);
+        }
         System.out.printf("\t Avg Length of the %d objects' trips = %.3f\n", objectTotal, avgLength);
 
 
@@ -55,23 +86,52 @@ public class Main {
         *           Four signatures are provided: spatial, temporal, spatiotemporal, sequential */
         System.out.println("\n---------------------------------");
         System.out.printf("[INFO] Constructing %s signatures for two sets ...\n", sigType);
-        final Map<String, Map<Integer, Double>> oddSignatures = Function.constructSignature(oddData, grid, sigType, gramLen, timeWindowSize, gridNum);
-        final Map<String, Map<Integer, Double>> evenSignatures = Function.constructSignature(evenData, grid, sigType, gramLen, timeWindowSize, gridNum);
+        final Map<String, SparseVector> oddSignatures = Function.constructSignature(oddData, grid, sigType, gramLen, timeWindowSize, gridNum, threadNum);
+        final Map<String, SparseVector> evenSignatures = Function.constructSignature(evenData, grid, sigType, gramLen, timeWindowSize, gridNum, threadNum);
+        System.out.printf("\t Map-matching: %d points matched beyond the 3*3 cells, %d outliers created\n",
+                grid.getRingMatchNum(), grid.getOutlierNum());
+        Set<Integer> dimensions = new HashSet<>();
+        for (Map<String, SparseVector> signatures : List.of(oddSignatures, evenSignatures)) {
+            signatures.values().forEach(sig -> {
+                for (int i = 0; i < sig.size(); i++) {
+                    dimensions.add(sig.getDimension(i));
+                }
+            });
+        }
+        System.out.printf("\t # of distinct dimensions = %d\n", dimensions.size());
+        final NearestVertexCache cache = grid.getCache();
+        if (cache != null) {
+            System.out.printf("\t Map-matching cache (%s, %d entries): hits = %d, misses = %d, hit ratio = %.3f\n",
+                    cache.getPolicy(), cache.getCapacity(), cache.getHits(), cache.getMisses(), cache.getHitRatio());
+        }
 
 
         /* start linking */
         final int total = oddSignatures.size();
         int[] success = null;
+        final long linkingStart = System.currentTimeMillis();
 
         // temporal signatures don't have any spatial information, so only linear scan is possible
         if(method.equalsIgnoreCase("linear") || sigType.equalsIgnoreCase("time") || sigType.equalsIgnoreCase("temporal")) {
-            success = Linking.linearExecute(oddSignatures, evenSignatures, cutoff, topK, sigType);
+            success = Linking.linearExecute(oddSignatures, evenSignatures, cutoff, topK, sigType, threadNum);
         }
         else if(method.equalsIgnoreCase("wr-tree") || method.equalsIgnoreCase("wrtree")){
             final int capacity = 28, fanout = 4;  // the fixed parameters of R-tree, okay with changes
-            success = Linking.rtreeBased(oddSignatures, evenSignatures, cutoff, topK, capacity, fanout);
+            success = Linking.rtreeBased(oddSignatures, evenSignatures, cutoff, topK, capacity, fanout, bulkLoading, threadNum,
+                    treeFile.isEmpty() ? null : homepath + treeFile);
+        }
+        else if(method.equalsIgnoreCase("inverted")){
+            success = Linking.invertedBased(oddSignatures, evenSignatures, cutoff, topK, threadNum, false);
+        }
+        else if(method.equalsIgnoreCase("matrix")){
+            success = Linking.invertedBased(oddSignatures, evenSignatures, cutoff, topK, threadNum, true);
+        }
+        else if(method.equalsIgnoreCase("join")){
+            final int capacity = 28, fanout = 4;
+            success = Linking.joinBased(oddSignatures, evenSignatures, cutoff, topK, capacity, fanout, bulkLoading, threadNum);
         }
 
+        System.out.printf("[INFO] Linking time = %.3f s\n", (System.currentTimeMillis() - linkingStart) / 1000.0);
         showResult(success, total, topK);
         System.out.println("\nThe program is done!");
     }
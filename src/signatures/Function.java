@@ -8,27 +8,41 @@ import java.util.*;
 
 public class Function {
 
-    public static Map<String, Map<Integer, Double>> constructSignature(final Vector<Trajectory> trajectories,
-                                                                       final Grid grid, final String sigType,
-                                                                       final int gramLen, final int binSize, final int gridNum) {
+    public static Map<String, SparseVector> constructSignature(final Vector<Trajectory> trajectories,
+                                                               final Grid grid, final String sigType,
+                                                               final int gramLen, final int binSize, final int gridNum) {
+        return constructSignature(trajectories, grid, sigType, gramLen, binSize, gridNum, 1);
+    }
+
+    /**
+     * @param threadNum  # of threads for map-matching (see Grid.getNearestIDs); 1 means serial, 0 means all available cores,
+     *                   the signatures are the same in any case
+     */
+    public static Map<String, SparseVector> constructSignature(final Vector<Trajectory> trajectories,
+                                                               final Grid grid, final String sigType,
+                                                               final int gramLen, final int binSize, final int gridNum,
+                                                               final int threadNum) {
         // Step-1: get "dim2count" for different types of signature accordingly
         Map<String, Map<Integer, Double>> signatures = new HashMap<>();
         boolean cosineSimilarity = true;
         switch (sigType) {
-            case "spatial" -> signatures = Spatial.constructSpatial(trajectories, grid);
-            case "sequential", "seq" -> signatures = Sequential.constructSequential(trajectories, grid, gramLen);
+            case "spatial" -> signatures = Spatial.constructSpatial(trajectories, grid, threadNum);
+            case "sequential", "seq" -> signatures = Sequential.constructSequential(trajectories, grid, gramLen, threadNum);
             case "temporal", "time" -> {
                 cosineSimilarity = false;   // we use EMD for temporal signature based linking
                 signatures = Temporal.constructTemporal(trajectories, binSize);
             }
-            case "spatiotemporal", "spatio-temporal", "st" -> signatures = Spatiotemporal.constructSignature(trajectories, grid, gridNum);
+            case "spatiotemporal", "spatio-temporal", "st" -> signatures = Spatiotemporal.constructSignature(trajectories, grid, gridNum, threadNum);
         }
 
         // Step-2: finalize, suitable for cosine similarity measurement
         if(cosineSimilarity)
             fromCount2TFIDF(signatures);
 
-        return signatures;
+        // Step-3: to the compact sparse vectors, which keep the ordering by weight for signature reduction
+        Map<String, SparseVector> vectors = new HashMap<>();
+        signatures.forEach((id, sig) -> vectors.put(id, SparseVector.fromMap(sig)));
+        return vectors;
     }
 
     public static void fromCount2TFIDF(Map<String, Map<Integer, Double>> user2point2count){
@@ -71,30 +85,11 @@ public class Function {
         sortedEntryList.forEach(entry -> map.put(entry.getKey(), entry.getValue()));
     }
 
-    // oriVector is sorted
-    public static Map<Integer, Double> cutSignature(Map<Integer, Double> oriVector, int cutoff) {
+    // keep the top-m dimensions by weight and normalize again
+    public static SparseVector cutSignature(SparseVector oriVector, int cutoff) {
         if(oriVector == null) {
             return null;
         }
-
-        if (cutoff == 0 || cutoff >= oriVector.size()) {
-            return oriVector;
-        }
-
-        Map<Integer, Double> newVector = new LinkedHashMap<>();
-        double denominator = 0;
-        int i = 0;
-        for (int pid : oriVector.keySet()) {
-            double value = oriVector.get(pid);
-            denominator += value * value;
-            newVector.put(pid, value);
-            i++;
-            if (i >= cutoff)
-                break;
-        }
-        // normalization again
-        final double finalDenominator = Math.sqrt(denominator);
-        newVector.replaceAll((p, v) -> v /= finalDenominator);
-        return newVector;
+        return oriVector.cut(cutoff);
     }
 }
@@ -0,0 +1,159 @@
+package signatures;
+
+import java.util.Arrays;
+
+/**
+ * The element-wise maximum of sparse vectors, accumulated in place, i.e., a mutable aggregator
+ *      an open-addressing hash table from the dimension to its max weight, in primitive arrays
+ *
+ * adding a vector costs O(size of that vector), no matter how large the accumulated one is,
+ * and the dimensions are sorted only once when it is turned into a SparseVector
+ */
+public class MaxAccumulator {
+
+    private int[] dims;
+    private double[] weights;
+    private boolean[] used;
+    private int size = 0;
+    private int mask;
+
+    public MaxAccumulator(int expectedSize) {
+        int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1);
+        dims = new int[capacity];
+        weights = new double[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    // start from the given vector
+    public MaxAccumulator(final SparseVector vector) {
+        this(vector.size());
+        add(vector);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(final SparseVector vector) {
+        for (int i = 0, n = vector.size(); i < n; i++) {
+            put(vector.getDimension(i), vector.getWeight(i));
+        }
+    }
+
+    private void put(int dim, double weight) {
+        int slot = slot(dim);
+        if (used[slot]) {
+            weights[slot] = Math.max(weights[slot], weight);
+            return;
+        }
+        used[slot] = true;
+        dims[slot] = dim;
+        weights[slot] = weight;
+        if (++size * 2 > dims.length) {
+            rehash();
+        }
+    }
+
+    // overwrite the weight of the dimension, e.g., when the max one is removed
+    public void set(int dim, double weight) {
+        int slot = slot(dim);
+        if (used[slot]) {
+            weights[slot] = weight;
+        } else {
+            put(dim, weight);
+        }
+    }
+
+    public void remove(int dim) {
+        int slot = slot(dim);
+        if (!used[slot]) {
+            return;
+        }
+        used[slot] = false;
+        size--;
+        // shift back the following entries of the probe sequence, so none of them is cut off from its home slot
+        for (int next = (slot + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = home(dims[next]);
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                used[slot] = true;
+                dims[slot] = dims[next];
+                weights[slot] = weights[next];
+                used[next] = false;
+                slot = next;
+            }
+        }
+    }
+
+    private int home(int dim) {
+        int h = dim * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // the slot of the given dimension, or the empty slot where it should be
+    private int slot(int dim) {
+        int slot = home(dim);
+        while (used[slot] && dims[slot] != dim) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        int[] oldDims = dims;
+        double[] oldWeights = weights;
+        boolean[] oldUsed = used;
+        dims = new int[oldDims.length * 2];
+        weights = new double[oldDims.length * 2];
+        used = new boolean[oldDims.length * 2];
+        mask = dims.length - 1;
+        for (int i = 0; i < oldDims.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slot(oldDims[i]);
+                used[slot] = true;
+                dims[slot] = oldDims[i];
+                weights[slot] = oldWeights[i];
+            }
+        }
+    }
+
+    public boolean contains(int dim) {
+        return used[slot(dim)];
+    }
+
+    /** @return the weight of the given dimension, 0 if absent */
+    public double get(int dim) {
+        int slot = slot(dim);
+        return used[slot] ? weights[slot] : 0;
+    }
+
+    // # of dimensions of the given vector appearing in this one, the same as SparseVector.countCommon
+    public int countCommon(final SparseVector vector) {
+        int common = 0;
+        for (int i = 0, n = vector.size(); i < n; i++) {
+            if (contains(vector.getDimension(i))) {
+                common++;
+            }
+        }
+        return common;
+    }
+
+    /**
+     * @return the same vector as merging the added ones by SparseVector.max
+     */
+    public SparseVector toVector() {
+        int[] keys = new int[size];
+        int n = 0;
+        for (int i = 0; i < dims.length; i++) {
+            if (used[i]) {
+                keys[n++] = dims[i];
+            }
+        }
+        Arrays.sort(keys);
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = weights[slot(keys[i])];
+        }
+        return SparseVector.fromSortedArrays(keys, values);
+    }
+}
@@ -44,7 +44,7 @@ public class PointSeq {
         boolean isFirstPoint = true;
         Rectangle rectangle = new Rectangle();
         for(int pid: pointIdSeq){
-            SimplePoint point = Main.NNid2lnglat.get(pid);
+            SimplePoint point = Main.getPoint(pid);
             if (isFirstPoint) {
                 rectangle.bottomLeft = new SimplePoint(point);
                 rectangle.topRight = new SimplePoint(point);
@@ -1,7 +1,6 @@
 package signatures;
 
 import basic.Grid;
-import basic.SimplePoint;
 import basic.Trajectory;
 
 import java.util.*;
@@ -12,7 +11,8 @@ public class Sequential {
     public static Map<Integer, PointSeq> id2qgram = null;
 
     public static Map<String, Map<Integer, Double>> constructSequential(final Vector<Trajectory> trajectories,
-                                                                        final Grid grid, final int gramLength) {
+                                                                        final Grid grid, final int gramLength,
+                                                                        final int threadNum) {
         // initialize two indexing containers
         if(qgram2Id == null) {
             qgram2Id = new HashMap<>();
@@ -22,7 +22,9 @@ public class Sequential {
         }
 
         Map<String, Map<Integer, Double>> user2ngram2freq = new HashMap<>();
-        trajectories.forEach(traj -> {
+        final int[][] matched = grid.getNearestIDs(trajectories, threadNum);
+        for (int t = 0; t < trajectories.size(); t++) {
+            final Trajectory traj = trajectories.get(t);
             Map<Integer, Double> ngram2freq = new LinkedHashMap<>();
             for(int i = 0, len = traj.get_length(); i <= len - gramLength; i++){
                 // compose n-gram
@@ -30,8 +32,7 @@ public class Sequential {
                 int j = 0;
                 int vid_prev = -1;
                 while (ngram.size() < gramLength && i + j < len){
-                    SimplePoint p = traj.get_point_by_idx(i + j);
-                    int vid = grid.getNearestID(new SimplePoint(p.getLongitude(), p.getLatitude())); // filter duplicate
+                    int vid = grid.getNearestID(matched[t], traj, i + j); // filter duplicate
                     if(vid >= 0) {   // valid point
 
                         // avoid duplicate
@@ -62,7 +63,7 @@ public class Sequential {
                 String id = traj.get_trajectoryId() + "";
                 user2ngram2freq.put(id, ngram2freq);
             }
-        });
+        }
 
         return user2ngram2freq;
     }
@@ -0,0 +1,286 @@
+package signatures;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * An immutable sparse vector, e.g., a signature or an aggregator
+ *      dims:     the dimension ids in ascending order
+ *      weights:  weights[i] is the weight of dims[i]
+ *      ranks:    the positions sorted by weight in descending order (the weight-sorted view for signature reduction),
+ *                the ties keep the order in which the dimensions were given
+ *
+ * the dot product merges two sorted dimension arrays, so no hashing or boxing is involved
+ */
+public class SparseVector {
+
+    public static final SparseVector EMPTY = new SparseVector(new int[0], new double[0], new int[0]);
+
+    private final int[] dims;
+    private final double[] weights;
+    private volatile int[] ranks;     // created on demand if not given
+
+    private SparseVector(int[] _dims, double[] _weights, int[] _ranks) {
+        dims = _dims;
+        weights = _weights;
+        ranks = _ranks;
+    }
+
+    /**
+     * @param map the iteration order is kept for the dimensions of the same weight,
+     *            so a map already sorted by weight (see Function.sortMapByValue) gives exactly its own order
+     */
+    public static SparseVector fromMap(final Map<Integer, Double> map) {
+        final int n = map.size();
+        int[] keys = new int[n];
+        double[] values = new double[n];
+        int i = 0;
+        for (Map.Entry<Integer, Double> entry : map.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i] = entry.getValue();
+            i++;
+        }
+        return fromArrays(keys, values);
+    }
+
+    /** the dimensions needn't be sorted, but should be distinct */
+    public static SparseVector fromArrays(final int[] keys, final double[] values) {
+        final int n = keys.length;
+
+        // the given order sorted by weight, stable
+        Integer[] byWeight = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byWeight[i] = i;
+        }
+        Arrays.sort(byWeight, (i1, i2) -> Double.compare(values[i2], values[i1]));
+
+        // the given order sorted by dimension
+        Integer[] byDim = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byDim[i] = i;
+        }
+        Arrays.sort(byDim, (i1, i2) -> Integer.compare(keys[i1], keys[i2]));
+
+        int[] dims = new int[n];
+        double[] weights = new double[n];
+        int[] position = new int[n];       // the given index -> the position in dims
+        for (int i = 0; i < n; i++) {
+            dims[i] = keys[byDim[i]];
+            weights[i] = values[byDim[i]];
+            position[byDim[i]] = i;
+            if (i > 0 && dims[i] == dims[i - 1]) {
+                throw new IllegalArgumentException("Error in SparseVector.fromArrays: duplicate dimension " + dims[i]);
+            }
+        }
+        int[] ranks = new int[n];
+        for (int r = 0; r < n; r++) {
+            ranks[r] = position[byWeight[r]];
+        }
+        return new SparseVector(dims, weights, ranks);
+    }
+
+    // the dimensions are sorted and distinct, the ties are ordered by dimension as merged vectors
+    static SparseVector fromSortedArrays(final int[] dims, final double[] weights) {
+        return new SparseVector(dims, weights, null);
+    }
+
+    public int size() {
+        return dims.length;
+    }
+
+    public boolean isEmpty() {
+        return dims.length == 0;
+    }
+
+    public int getDimension(int i) {
+        return dims[i];
+    }
+
+    public double getWeight(int i) {
+        return weights[i];
+    }
+
+    /** @return the weight of the given dimension, 0 if absent */
+    public double get(int dim) {
+        int i = Arrays.binarySearch(dims, dim);
+        return i >= 0 ? weights[i] : 0;
+    }
+
+    public boolean contains(int dim) {
+        return Arrays.binarySearch(dims, dim) >= 0;
+    }
+
+    // the position (in dims) of the r-th largest weight
+    public int getRank(int r) {
+        return getRanks()[r];
+    }
+
+    private int[] getRanks() {
+        int[] r = ranks;
+        if (r == null) {
+            // for the vectors merged from others, i.e., aggregators, the ties are ordered by dimension
+            Integer[] order = new Integer[dims.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (i1, i2) -> Double.compare(weights[i2], weights[i1]));
+            r = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                r[i] = order[i];
+            }
+            ranks = r;
+        }
+        return r;
+    }
+
+    /**
+     * keep the top-m dimensions by weight and normalize again
+     */
+    public SparseVector cut(int cutoff) {
+        if (cutoff == 0 || cutoff >= dims.length) {
+            return this;
+        }
+        int[] rank = getRanks();
+        int[] keys = new int[cutoff];
+        double[] values = new double[cutoff];
+        double denominator = 0;
+        for (int r = 0; r < cutoff; r++) {
+            int i = rank[r];
+            keys[r] = dims[i];
+            values[r] = weights[i];
+            denominator += weights[i] * weights[i];
+        }
+        // normalization again
+        final double finalDenominator = Math.sqrt(denominator);
+        for (int r = 0; r < cutoff; r++) {
+            values[r] /= finalDenominator;
+        }
+        return fromArrays(keys, values);
+    }
+
+    public double dot(final SparseVector other) {
+        final int[] d1 = this.dims, d2 = other.dims;
+        final double[] w1 = this.weights, w2 = other.weights;
+        double dotProduct = 0;
+        int i = 0, j = 0;
+        while (i < d1.length && j < d2.length) {
+            if (d1[i] < d2[j]) {
+                i++;
+            } else if (d1[i] > d2[j]) {
+                j++;
+            } else {
+                dotProduct += w1[i++] * w2[j++];
+            }
+        }
+        return dotProduct;
+    }
+
+    // # of dimensions appearing in both vectors
+    public int countCommon(final SparseVector other) {
+        if (isMuchSmaller(this, other)) {
+            return other.countCommonBySearch(this);
+        }
+        if (isMuchSmaller(other, this)) {
+            return this.countCommonBySearch(other);
+        }
+        final int[] d1 = this.dims, d2 = other.dims;
+        int common = 0;
+        int i = 0, j = 0;
+        while (i < d1.length && j < d2.length) {
+            if (d1[i] < d2[j]) {
+                i++;
+            } else if (d1[i] > d2[j]) {
+                j++;
+            } else {
+                common++;
+                i++;
+                j++;
+            }
+        }
+        return common;
+    }
+
+    // e.g., a signature against a large aggregator, then searching its dimensions is cheaper than merging both
+    private static boolean isMuchSmaller(final SparseVector small, final SparseVector large) {
+        return (long) small.dims.length * (32 - Integer.numberOfLeadingZeros(large.dims.length)) < large.dims.length;
+    }
+
+    private int countCommonBySearch(final SparseVector small) {
+        int common = 0;
+        for (int dim : small.dims) {
+            if (Arrays.binarySearch(dims, dim) >= 0) {
+                common++;
+            }
+        }
+        return common;
+    }
+
+    /**
+     * @return the element-wise maximum of two vectors, i.e., the aggregator of them
+     */
+    public static SparseVector max(final SparseVector v1, final SparseVector v2) {
+        if (v1.isEmpty()) {
+            return v2;
+        }
+        if (v2.isEmpty()) {
+            return v1;
+        }
+        if (isMuchSmaller(v2, v1)) {
+            return maxBySearch(v1, v2);
+        }
+        if (isMuchSmaller(v1, v2)) {
+            return maxBySearch(v2, v1);
+        }
+        final int[] d1 = v1.dims, d2 = v2.dims;
+        final double[] w1 = v1.weights, w2 = v2.weights;
+        int[] dims = new int[d1.length + d2.length];
+        double[] weights = new double[d1.length + d2.length];
+        int i = 0, j = 0, n = 0;
+        while (i < d1.length || j < d2.length) {
+            if (j == d2.length || (i < d1.length && d1[i] < d2[j])) {
+                dims[n] = d1[i];
+                weights[n++] = w1[i++];
+            } else if (i == d1.length || d1[i] > d2[j]) {
+                dims[n] = d2[j];
+                weights[n++] = w2[j++];
+            } else {
+                dims[n] = d1[i];
+                weights[n++] = Math.max(w1[i++], w2[j++]);
+            }
+        }
+        return new SparseVector(Arrays.copyOf(dims, n), Arrays.copyOf(weights, n), null);
+    }
+
+    // the same as max, but the runs of the large vector between the dimensions of the small one are copied at once
+    private static SparseVector maxBySearch(final SparseVector large, final SparseVector small) {
+        final int[] dl = large.dims, ds = small.dims;
+        final double[] wl = large.weights, ws = small.weights;
+        int[] positions = new int[ds.length];
+        int n = dl.length;
+        for (int j = 0; j < ds.length; j++) {
+            positions[j] = Arrays.binarySearch(dl, ds[j]);
+            if (positions[j] < 0) {
+                n++;
+            }
+        }
+        int[] dims = new int[n];
+        double[] weights = new double[n];
+        int i = 0, k = 0;       // the next position in the large vector and in the result
+        for (int j = 0; j < ds.length; j++) {
+            int p = positions[j] >= 0 ? positions[j] : -positions[j] - 1;
+            System.arraycopy(dl, i, dims, k, p - i);
+            System.arraycopy(wl, i, weights, k, p - i);
+            k += p - i;
+            i = p;
+            dims[k] = ds[j];
+            if (positions[j] >= 0) {
+                weights[k++] = Math.max(wl[i++], ws[j]);
+            } else {
+                weights[k++] = ws[j];
+            }
+        }
+        System.arraycopy(dl, i, dims, k, dl.length - i);
+        System.arraycopy(wl, i, weights, k, dl.length - i);
+        return new SparseVector(dims, weights, null);
+    }
+}
@@ -2,7 +2,6 @@ package signatures;
 
 import main.Main;
 import org.apache.commons.lang3.tuple.Pair;
-import basic.ComplexPoint;
 import basic.Grid;
 import basic.SimplePoint;
 import basic.Trajectory;
@@ -17,10 +16,10 @@ public class Spatiotemporal {
     private static final int temporalDimension = 24;
 
     public static Map<String, Map<Integer, Double>> constructSignature(final Vector<Trajectory> trajectories,
-                                                                       final Grid grid, final int gridNum) {
+                                                                       final Grid grid, final int gridNum, final int threadNum) {
         Map<String, Map<Integer, Double>> signatures = new HashMap<>();
 
-        Map<String, Map<Integer, Integer[]>> id2point2hour2cnt = prepareForST(trajectories, grid);
+        Map<String, Map<Integer, Integer[]>> id2point2hour2cnt = prepareForST(trajectories, grid, threadNum);
 
         Map<Integer, Integer> pointID2gridID = null;
         if (gridNum > 0) {    //e.g., 100, 200, 300
@@ -71,28 +70,29 @@ public class Spatiotemporal {
     }
 
     private static Map<String, Map<Integer, Integer[]>> prepareForST(final Vector<Trajectory> trajectories,
-                                                                     final Grid grid) {
+                                                                     final Grid grid, final int threadNum) {
         Map<String, Map<Integer, Integer[]>> id2point2hour2cnt = new HashMap<>();
-        trajectories.forEach(traj -> {
+        final int[][] matched = grid.getNearestIDs(trajectories, threadNum);
+        for (int t = 0; t < trajectories.size(); t++) {
+            final Trajectory traj = trajectories.get(t);
             String id = traj.get_trajectoryId() + "";
 
             Map<Integer, Integer[]> pid2hour2cnt = id2point2hour2cnt.compute(id, (k, v) -> v == null ? new HashMap<>() : v);
             for (int i = 0, len = traj.get_length(); i < len; i++) {
-                ComplexPoint p = traj.get_point_by_idx(i);
-                final int vid = grid.getNearestID(new SimplePoint(p.getLongitude(), p.getLatitude()));
+                final int vid = grid.getNearestID(matched[t], traj, i);
                 if(vid > 0) {
                     Integer[] hour2cnt = pid2hour2cnt.get(vid);
                     if (hour2cnt == null) {
                         hour2cnt = new Integer[temporalDimension];
                         Arrays.fill(hour2cnt, 0);
                     }
-                    Timestamp timestamp = new Timestamp(p.get_exactTime() * 1000);
+                    Timestamp timestamp = new Timestamp(traj.get_time(i) * 1000);
                     int hour = timestamp.toLocalDateTime().getHour();
                     hour2cnt[hour]++;
                     pid2hour2cnt.put(vid, hour2cnt);
                 }
             }
-        });
+        }
         return id2point2hour2cnt;
     }
 
@@ -118,7 +118,7 @@ public class Spatiotemporal {
         newGrid.setNum(gridNum);
 
         pointSet.forEach(pid -> {
-            SimplePoint p = Main.NNid2lnglat.get(pid);
+            SimplePoint p = Main.getPoint(pid);
             int gid = (int) newGrid.get_gridId_by_lnglat(p.getLongitude(), p.getLatitude());
             pointID2gridID.put(pid, gid);
         });
@@ -30,7 +30,7 @@ public class Temporal {
             String id = traj.get_trajectoryId() + "";
             Map<Integer, Double> hour2pointCnt = user2hour2pointCnt.compute(id, (k, v) -> v == null ? new LinkedHashMap<>() : v);
             for(int i = 0, len = traj.get_length(); i < len; i++) {
-                Timestamp timestamp = new Timestamp(traj.get_point_by_idx(i).get_exactTime() * 1000);
+                Timestamp timestamp = new Timestamp(traj.get_time(i) * 1000);
                 int hour = timestamp.toLocalDateTime().getHour();
                 hour2pointCnt.compute(hour, (k, v) -> v == null ? 1 : ++v);
             }
@@ -1,5 +1,7 @@
 package signatures.temporalEMD;
 
+import signatures.SparseVector;
+
 import java.util.*;
 
 public class EMDmetric {
@@ -7,7 +9,7 @@ public class EMDmetric {
     public static int binSize = 0;
     public static int dimension;
 
-    public static double computeSimilarity(Map<Integer, Double> signature_odd, Map<Integer, Double> signature_even){
+    public static double computeSimilarity(SparseVector signature_odd, SparseVector signature_even){
         if(binSize == 0){
             throw new IllegalArgumentException("[ERROR] No bin size assigned!");
         }
@@ -15,7 +17,7 @@ public class EMDmetric {
         return 1 - distance(signature_odd, signature_even, 0);
     }
 
-    private static double distance(Map<Integer, Double> signature1, Map<Integer, Double> signature2, double extraMassPenalty){
+    private static double distance(SparseVector signature1, SparseVector signature2, double extraMassPenalty){
 
         double[][] costMatrix = new double[dimension][];
         for(int i = 0; i < dimension; i++){
@@ -37,11 +39,11 @@ public class EMDmetric {
         return emdHat(toDoubleArray(signature1), toDoubleArray(signature2), costMatrix, extraMassPenalty);
     }
 
-    public static double[] toDoubleArray(Map<Integer, Double> sig) {
+    public static double[] toDoubleArray(SparseVector sig) {
         double[] array = new double[dimension];
         for(int h = 0; h < dimension; h++){
             int startHour = h * binSize;
-            array[h] = sig.getOrDefault(startHour, 0.0);
+            array[h] = sig.get(startHour);
         }
         return array;
     }